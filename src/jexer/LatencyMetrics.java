@@ -0,0 +1,72 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import jexer.bits.LatencyHistogram;
+
+/**
+ * LatencyMetrics exposes how long a TApplication takes to respond to input,
+ * split into the stages an input event goes through.  All values are in
+ * nanoseconds.
+ *
+ * @see TApplication#getLatencyMetrics()
+ */
+public interface LatencyMetrics {
+
+    /**
+     * Get the time from when the backend decoded an input event to when an
+     * event handler started handling it.
+     *
+     * @return the decode to dispatch histogram
+     */
+    public LatencyHistogram getDecodeToDispatch();
+
+    /**
+     * Get the time from when an event handler started handling an event to
+     * when the screen update that shows its effect started drawing.  Events
+     * that changed nothing on screen are not counted.
+     *
+     * @return the dispatch to draw histogram
+     */
+    public LatencyHistogram getDispatchToDraw();
+
+    /**
+     * Get the time from when a screen update started drawing to when the
+     * backend finished flushing it.
+     *
+     * @return the draw to flush histogram
+     */
+    public LatencyHistogram getDrawToFlush();
+
+    /**
+     * Forget everything recorded so far.
+     */
+    public void reset();
+
+}
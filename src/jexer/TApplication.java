@@ -35,22 +35,36 @@ import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 import java.util.Collections;
-import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.locks.LockSupport;
 
 import jexer.bits.CellAttributes;
 import jexer.bits.ColorTheme;
+import jexer.bits.LatencyHistogram;
+import jexer.bits.ThreadSupport;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.event.TResizeEvent;
 import jexer.backend.Backend;
+import jexer.backend.BackendListener;
 import jexer.backend.Screen;
 import jexer.backend.SwingBackend;
 import jexer.backend.ECMA48Backend;
@@ -65,7 +79,7 @@ import static jexer.TKeypress.*;
  * application.  It manages windows, provides a menu bar and status bar, and
  * processes events received from the user.
  */
-public class TApplication implements Runnable {
+public class TApplication implements Runnable, BackendListener {
 
     // ------------------------------------------------------------------------
     // Public constants -------------------------------------------------------
@@ -128,6 +142,11 @@ public class TApplication implements Runnable {
          */
         private boolean primary = true;
 
+        /**
+         * The thread running this WidgetEventHandler.
+         */
+        private volatile Thread thread;
+
         /**
          * Public constructor.
          *
@@ -141,55 +160,53 @@ public class TApplication implements Runnable {
             this.primary = primary;
         }
 
+        /**
+         * Wake this handler's thread if it is parked, or make its next park
+         * return immediately if it is not.
+         */
+        public void wake() {
+            LockSupport.unpark(thread);
+        }
+
         /**
          * The consumer loop.
          */
         public void run() {
+            thread = Thread.currentThread();
 
             // Loop forever
             while (!application.quit) {
 
                 // Wait until application notifies me
                 while (!application.quit) {
-                    try {
-                        synchronized (application.drainEventQueue) {
-                            if (application.drainEventQueue.size() > 0) {
-                                break;
-                            }
-                        }
+                    if (!application.drainEventQueue.isEmpty()) {
+                        break;
+                    }
 
-                        synchronized (this) {
-                            if (debugThreads) {
-                                System.err.printf("%s %s sleep\n", this,
-                                    primary ? "primary" : "secondary");
-                            }
-
-                            this.wait();
-
-                            if (debugThreads) {
-                                System.err.printf("%s %s AWAKE\n", this,
-                                    primary ? "primary" : "secondary");
-                            }
-
-                            if ((!primary)
-                                && (application.secondaryEventReceiver == null)
-                            ) {
-                                // Secondary thread, emergency exit.  If we
-                                // got here then something went wrong with
-                                // the handoff between yield() and
-                                // closeWindow().
-                                synchronized (application.primaryEventHandler) {
-                                    application.primaryEventHandler.notify();
-                                }
-                                application.secondaryEventHandler = null;
-                                throw new RuntimeException(
-                                        "secondary exited at wrong time");
-                            }
-                            break;
-                        }
-                    } catch (InterruptedException e) {
-                        // SQUASH
+                    if (debugThreads) {
+                        System.err.printf("%s %s sleep\n", this,
+                            primary ? "primary" : "secondary");
+                    }
+
+                    LockSupport.park(this);
+
+                    if (debugThreads) {
+                        System.err.printf("%s %s AWAKE\n", this,
+                            primary ? "primary" : "secondary");
+                    }
+
+                    if ((!primary)
+                        && (application.secondaryEventReceiver == null)
+                    ) {
+                        // Secondary thread, emergency exit.  If we got
+                        // here then something went wrong with the handoff
+                        // between yield() and closeWindow().
+                        application.primaryEventHandler.wake();
+                        application.secondaryEventHandler = null;
+                        throw new RuntimeException(
+                                "secondary exited at wrong time");
                     }
+                    break;
                 }
 
                 // Wait for drawAll() or doIdle() to be done, then handle the
@@ -199,14 +216,11 @@ public class TApplication implements Runnable {
 
                 // Pull all events off the queue
                 for (;;) {
-                    TInputEvent event = null;
-                    synchronized (application.drainEventQueue) {
-                        if (application.drainEventQueue.size() == 0) {
-                            break;
-                        }
-                        event = application.drainEventQueue.remove(0);
+                    TInputEvent event = application.pollDrainEvent();
+                    if (event == null) {
+                        break;
                     }
-                    application.repaint = true;
+                    application.eventDispatched(event);
                     if (primary) {
                         primaryHandleEvent(event);
                     } else {
@@ -220,9 +234,8 @@ public class TApplication implements Runnable {
                         // DO NOT UNLOCK.  Primary thread just came back from
                         // primaryHandleEvent() and will unlock in the else
                         // block below.  Just wake it up.
-                        synchronized (application.primaryEventHandler) {
-                            application.primaryEventHandler.notify();
-                        }
+                        application.primaryEventHandler.wake();
+
                         // Now eliminate my reference so that
                         // wakeEventHandler() resumes working on the primary.
                         application.secondaryEventHandler = null;
@@ -239,9 +252,7 @@ public class TApplication implements Runnable {
 
                 // I have done some work of some kind.  Tell the main run()
                 // loop to wake up now.
-                synchronized (application) {
-                    application.notify();
-                }
+                application.wakeRun();
 
             } // while (true) (main runnable loop)
         }
@@ -263,30 +274,36 @@ public class TApplication implements Runnable {
     private volatile TWidget secondaryEventReceiver;
 
     /**
-     * Spinlock for the primary and secondary event handlers.
+     * True while an event handler holds handleEventLock.
      * WidgetEventHandler.run() is responsible for setting this value.
      */
     private volatile boolean insideHandleEvent = false;
 
+    /**
+     * The single permit that lets either TApplication.run() or one event
+     * handler touch the global state.  A semaphore is used rather than a
+     * lock because the permit is handed between threads: yield() releases
+     * it on the primary thread, and the secondary thread passes it back to
+     * the primary without releasing it.  It is fair so that run() gets its
+     * turn in between event batches.
+     */
+    private final Semaphore handleEventLock = new Semaphore(1, true);
+
     /**
      * Wake the sleeping active event handler.
      */
     private void wakeEventHandler() {
-        if (secondaryEventHandler != null) {
-            synchronized (secondaryEventHandler) {
-                secondaryEventHandler.notify();
-            }
-        } else {
-            assert (primaryEventHandler != null);
-            synchronized (primaryEventHandler) {
-                primaryEventHandler.notify();
-            }
+        WidgetEventHandler handler = secondaryEventHandler;
+        if (handler == null) {
+            handler = primaryEventHandler;
         }
+        assert (handler != null);
+        handler.wake();
     }
 
     /**
-     * Set the insideHandleEvent flag to true.  lockoutEventHandlers() will
-     * spin indefinitely until unlockHandleEvent() is called.
+     * Take handleEventLock for an event handler, blocking while
+     * TApplication.run() is using the global state.
      *
      * @return the old value of insideHandleEvent
      */
@@ -295,23 +312,13 @@ public class TApplication implements Runnable {
             System.err.printf("  >> lockHandleEvent(): oldValue %s",
                 insideHandleEvent);
         }
-        boolean oldValue = true;
-
-        synchronized (this) {
-            // Wait for TApplication.run() to finish using the global state
-            // before allowing further event processing.
-            while (lockoutHandleEvent == true) {
-                try {
-                    // Backoff so that the backend can finish its work.
-                    Thread.sleep(5);
-                } catch (InterruptedException e) {
-                    // SQUASH
-                }
-            }
 
-            oldValue = insideHandleEvent;
-            insideHandleEvent = true;
-        }
+        // Wait for TApplication.run() to finish using the global state
+        // before allowing further event processing.
+        handleEventLock.acquireUninterruptibly();
+
+        boolean oldValue = insideHandleEvent;
+        insideHandleEvent = true;
 
         if (debugThreads) {
             System.err.printf(" ***\n");
@@ -320,8 +327,7 @@ public class TApplication implements Runnable {
     }
 
     /**
-     * Set the insideHandleEvent flag to false.  lockoutEventHandlers() will
-     * spin indefinitely until unlockHandleEvent() is called.
+     * Release handleEventLock from an event handler.
      *
      * @return the old value of insideHandleEvent
      */
@@ -330,40 +336,24 @@ public class TApplication implements Runnable {
             System.err.printf("  << unlockHandleEvent(): oldValue %s\n",
                 insideHandleEvent);
         }
-        synchronized (this) {
-            boolean oldValue = insideHandleEvent;
-            insideHandleEvent = false;
-            return oldValue;
-        }
+        boolean oldValue = insideHandleEvent;
+        insideHandleEvent = false;
+        handleEventLock.release();
+        return oldValue;
     }
 
-    /**
-     * Spinlock for the primary and secondary event handlers.  When true, the
-     * event handlers will spinlock wait before calling handleEvent().
-     */
-    private volatile boolean lockoutHandleEvent = false;
-
     /**
      * TApplication.run() needs to be able rely on the global data structures
-     * being intact when calling doIdle() and drawAll().  Tell the event
-     * handlers to wait for an unlock before handling their events.
+     * being intact when calling doIdle() and drawAll().  Wait for the event
+     * handler to finish its current batch, and keep the handlers out until
+     * startEventHandlers().
      */
     private void stopEventHandlers() {
         if (debugThreads) {
             System.err.printf(">> stopEventHandlers()");
         }
 
-        lockoutHandleEvent = true;
-        // Wait for the last event to finish processing before returning
-        // control to TApplication.run().
-        while (insideHandleEvent == true) {
-            try {
-                // Backoff so that the event handler can finish its work.
-                Thread.sleep(1);
-            } catch (InterruptedException e) {
-                // SQUASH
-            }
-        }
+        handleEventLock.acquireUninterruptibly();
 
         if (debugThreads) {
             System.err.printf(" XXX\n");
@@ -379,7 +369,133 @@ public class TApplication implements Runnable {
         if (debugThreads) {
             System.err.printf("<< startEventHandlers()\n");
         }
-        lockoutHandleEvent = false;
+        handleEventLock.release();
+    }
+
+    /**
+     * Set when an event handler has asked run() to wake up, so that the
+     * request is not lost if run() was busy at the time.
+     */
+    private volatile boolean wakeRunRequested = false;
+
+    /**
+     * The thread in run(), or null if run() is not running.
+     */
+    private volatile Thread runThread = null;
+
+    /**
+     * Wake TApplication.run() if it is parked, or make its next park return
+     * immediately if it is not.
+     */
+    private void wakeRun() {
+        wakeRunRequested = true;
+        Thread thread = runThread;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+        Runnable wakeup = hostWakeup;
+        if (wakeup != null) {
+            wakeup.run();
+        }
+    }
+
+    /**
+     * Called by the backend when it has new input.
+     */
+    public void onBackendInput() {
+        wakeRun();
+    }
+
+    /**
+     * When hosted by a TApplicationServer, the server's callback to schedule
+     * another step().  Null when run() is driving this application.
+     */
+    private volatile Runnable hostWakeup = null;
+
+    /**
+     * Set the callback that wakeRun() uses to ask a TApplicationServer for
+     * another step().  Note package private access.
+     *
+     * @param wakeup the callback, or null
+     */
+    void setHostWakeup(final Runnable wakeup) {
+        hostWakeup = wakeup;
+    }
+
+    /**
+     * When hosted by a TApplicationServer, where to write finished frames
+     * to the backend, so that a slow client blocks one of those threads
+     * rather than one of the server's step() threads.  Null when run() is
+     * driving this application, in which case frames are flushed inline.
+     */
+    private volatile Executor hostFlushExecutor = null;
+
+    /**
+     * If true, a frame handed to hostFlushExecutor has not been written out
+     * yet.  No new frame is drawn until it has.
+     */
+    private volatile boolean flushing = false;
+
+    /**
+     * The System.nanoTime() at which the frame being flushed started
+     * drawing, for the draw to flush latency.
+     */
+    private volatile long frameDrawStart;
+
+    /**
+     * Writes the screen to the backend for hostFlushExecutor, then wakes
+     * the main loop to draw whatever changed in the meantime.
+     */
+    private final Runnable flushTask = new Runnable() {
+        public void run() {
+            try {
+                synchronized (getScreen()) {
+                    backend.flushScreen();
+                }
+                frameFlushed();
+            } finally {
+                flushing = false;
+                wakeRun();
+            }
+        }
+    };
+
+    /**
+     * Set the executor that flushes frames for a TApplicationServer.  Note
+     * package private access.
+     *
+     * @param executor the executor, or null to flush inline
+     */
+    void setHostFlushExecutor(final Executor executor) {
+        hostFlushExecutor = executor;
+    }
+
+    /**
+     * Write the screen to the backend, either right here or, when hosted by
+     * a TApplicationServer, on its flush executor.  The caller must hold
+     * the screen lock.
+     */
+    private void flushScreen() {
+        Executor executor = hostFlushExecutor;
+        if (executor != null) {
+            flushing = true;
+            try {
+                executor.execute(flushTask);
+                return;
+            } catch (RejectedExecutionException e) {
+                // The server is shutting down, flush here instead.
+                flushing = false;
+            }
+        }
+        backend.flushScreen();
+        frameFlushed();
+    }
+
+    /**
+     * Note that the backend finished writing out a frame.
+     */
+    private void frameFlushed() {
+        latencyMetrics.drawToFlush.record(System.nanoTime() - frameDrawStart);
     }
 
     // ------------------------------------------------------------------------
@@ -438,15 +554,22 @@ public class TApplication implements Runnable {
     private int oldMouseY;
 
     /**
-     * Event queue that is filled by run().
+     * Event queue that is filled by run() from the backend, and by the
+     * event handlers through postMenuEvent().
+     */
+    private Queue<TInputEvent> fillEventQueue;
+
+    /**
+     * Events pulled from the backend by run() on their way to
+     * fillEventQueue.
      */
-    private List<TInputEvent> fillEventQueue;
+    private List<TInputEvent> backendEventQueue;
 
     /**
      * Event queue that will be drained by either primary or secondary
      * Thread.
      */
-    private List<TInputEvent> drainEventQueue;
+    private Queue<TInputEvent> drainEventQueue;
 
     /**
      * Top-level menus in this application.
@@ -498,9 +621,98 @@ public class TApplication implements Runnable {
     private TWindow activeWindow = null;
 
     /**
-     * Timers that are being ticked.
+     * Timers that are being ticked, ordered by their next tick.
+     */
+    private TTimerQueue timers;
+
+    /**
+     * An action posted by invokeLater().
+     */
+    private static class PostedAction {
+
+        /**
+         * The window the action belongs to, or null.
+         */
+        private final TWindow window;
+
+        /**
+         * The action.
+         */
+        private final TAction action;
+
+        /**
+         * Public constructor.
+         *
+         * @param window the window the action belongs to, or null
+         * @param action the action
+         */
+        public PostedAction(final TWindow window, final TAction action) {
+            this.window = window;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Actions posted by invokeLater() that have not run yet, in the order
+     * their keys were first posted.
+     */
+    private final Map<Object, PostedAction> postedActions =
+        new LinkedHashMap<Object, PostedAction>();
+
+    /**
+     * The actions being run by runPostedActions(), kept to reuse.
      */
-    private List<TTimer> timers;
+    private final List<PostedAction> runningActions =
+        new ArrayList<PostedAction>();
+
+    /**
+     * A task started by runTask() on behalf of a window.
+     */
+    private class WindowTask extends FutureTask<Object> {
+
+        /**
+         * The window that owns this task.
+         */
+        private final TWindow window;
+
+        /**
+         * Public constructor.
+         *
+         * @param window the window that owns this task
+         * @param task the work to do
+         */
+        public WindowTask(final TWindow window, final Runnable task) {
+            super(task, null);
+            this.window = window;
+        }
+
+        /**
+         * Forget about this task once it has finished or been cancelled.
+         */
+        @Override
+        protected void done() {
+            synchronized (windowTasks) {
+                List<WindowTask> tasks = windowTasks.get(window);
+                if (tasks != null) {
+                    tasks.remove(this);
+                    if (tasks.isEmpty()) {
+                        windowTasks.remove(window);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The unfinished tasks started by runTask(), by owning window.
+     */
+    private final Map<TWindow, List<WindowTask>> windowTasks =
+        new HashMap<TWindow, List<WindowTask>>();
+
+    /**
+     * The threads that run runTask() work.  Created on first use.
+     */
+    private ExecutorService taskExecutor = null;
 
     /**
      * When true, exit the application.
@@ -508,10 +720,65 @@ public class TApplication implements Runnable {
     private volatile boolean quit = false;
 
     /**
-     * When true, repaint the entire screen.
+     * When true, draw every window again from scratch.
      */
     private volatile boolean repaint = true;
 
+    /**
+     * When true, some widgets have been invalidated or windows have moved,
+     * and the screen needs to be composited again.
+     */
+    private volatile boolean invalid = false;
+
+    /**
+     * The most frames per second that run() will draw.  Input, timers, and
+     * background updates that arrive between two frames are drawn together
+     * in the next one.
+     */
+    private int frameRate = 60;
+
+    /**
+     * Get the most frames per second that will be drawn.
+     *
+     * @return the frame rate
+     */
+    public final int getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Set the most frames per second that will be drawn.  The default can
+     * also be changed with the jexer.TApplication.frameRate property.
+     *
+     * @param frameRate the frame rate, at least 1
+     * @throws IllegalArgumentException if frameRate is less than 1
+     */
+    public final void setFrameRate(final int frameRate) {
+        if (frameRate < 1) {
+            throw new IllegalArgumentException("Invalid frame rate: "
+                + frameRate);
+        }
+        this.frameRate = frameRate;
+    }
+
+    /**
+     * The longest time between frames, in nanoseconds, when the backend is
+     * slow to accept output.
+     */
+    private static final long MAX_FRAME_INTERVAL = 500000000L;
+
+    /**
+     * System.nanoTime() at which the next frame may be drawn.
+     */
+    private long nextFrameTime;
+
+    /**
+     * Smoothed time in nanoseconds that drawAll() takes, including the
+     * backend flush.  When output is congested the flush blocks, this
+     * grows, and the frame interval backs off.
+     */
+    private long drawTime = 0;
+
     /**
      * Y coordinate of the top edge of the desktop.  For now this is a
      * constant.  Someday it would be nice to have a multi-line menu or
@@ -738,19 +1005,31 @@ public class TApplication implements Runnable {
     private void TApplicationImpl() {
         theme           = new ColorTheme();
         desktopBottom   = getScreen().getHeight() - 1;
-        fillEventQueue  = new ArrayList<TInputEvent>();
-        drainEventQueue = new ArrayList<TInputEvent>();
+        fillEventQueue  = new ConcurrentLinkedQueue<TInputEvent>();
+        backendEventQueue = new ArrayList<TInputEvent>();
+        drainEventQueue = new ConcurrentLinkedQueue<TInputEvent>();
         windows         = new LinkedList<TWindow>();
         menus           = new LinkedList<TMenu>();
         subMenus        = new LinkedList<TMenu>();
-        timers          = new LinkedList<TTimer>();
+        timers          = new TTimerQueue();
         accelerators    = new HashMap<TKeypress, TMenuItem>();
         menuItems       = new ArrayList<TMenuItem>();
         desktop         = new TDesktop(this);
+        nextFrameTime   = System.nanoTime();
+
+        // Permit a different frame rate if externally requested
+        String rate = System.getProperty("jexer.TApplication.frameRate");
+        if (rate != null) {
+            try {
+                setFrameRate(Integer.parseInt(rate));
+            } catch (IllegalArgumentException e) {
+                // SQUASH, NumberFormatException is one of these too
+            }
+        }
 
         // Setup the main consumer thread
         primaryEventHandler = new WidgetEventHandler(this, true);
-        (new Thread(primaryEventHandler)).start();
+        ThreadSupport.startThread(primaryEventHandler);
     }
 
     // ------------------------------------------------------------------------
@@ -781,7 +1060,7 @@ public class TApplication implements Runnable {
             System.err.printf("drawAll() enter\n");
         }
 
-        if (!repaint) {
+        if (!repaint && !invalid) {
             if (debugThreads) {
                 System.err.printf("drawAll() !repaint\n");
             }
@@ -795,44 +1074,67 @@ public class TApplication implements Runnable {
                     oldMouseY = mouseY;
                 }
                 if (getScreen().isDirty()) {
-                    backend.flushScreen();
+                    flushScreen();
                 }
                 return;
             }
         }
 
         if (debugThreads) {
-            System.err.printf("drawAll() REDRAW\n");
+            System.err.printf("drawAll() REDRAW %s\n", repaint);
         }
 
-        // If true, the cursor is not visible
-        boolean cursor = false;
-
-        // Start with a clean screen
-        getScreen().clear();
-
-        // Draw the desktop
-        if (desktop != null) {
-            desktop.drawChildren();
-        }
+        // Anything invalidated from here on will be seen on the next pass.
+        boolean redrawAll = repaint;
+        repaint = false;
+        invalid = false;
 
-        // Draw each window in reverse Z order
         List<TWindow> sorted = new LinkedList<TWindow>(windows);
         Collections.sort(sorted);
         TWindow topLevel = null;
         if (sorted.size() > 0) {
             topLevel = sorted.get(0);
         }
-        Collections.reverse(sorted);
+
+        // Bring the window surfaces up to date.  Only the widgets that were
+        // invalidated are drawn again.
+        if (desktop != null) {
+            desktop.drawSurface(redrawAll);
+        }
         for (TWindow window: sorted) {
             if (window.isShown()) {
-                window.drawChildren();
+                window.drawSurface(redrawAll);
+            }
+        }
+
+        // Composite the desktop and each window in reverse Z order
+        if (desktop != null) {
+            desktop.drawToScreen();
+        } else {
+            getScreen().clear();
+        }
+        for (int i = sorted.size() - 1; i >= 0; i--) {
+            TWindow window = sorted.get(i);
+            if (window.isShown()) {
+                window.drawToScreen();
             }
         }
 
         // Draw the blank menubar line - reset the screen clipping first so
         // it won't trim it out.
         getScreen().resetClipping();
+        TMenu menu = drawMenuBar();
+        drawStatusBarAndCursor(menu != null ? menu : topLevel, topLevel);
+    }
+
+    /**
+     * Draw the menubar line, the active menu, and any sub-menus.
+     *
+     * @return the active menu, or null if no menu is active
+     */
+    private TMenu drawMenuBar() {
+        TMenu openMenu = null;
+
         getScreen().hLineXY(0, 0, getScreen().getWidth(), ' ',
             theme.getColor("tmenu"));
         // Now draw the menus.
@@ -843,7 +1145,7 @@ public class TApplication implements Runnable {
             if (menu.isActive()) {
                 menuColor = theme.getColor("tmenu.highlighted");
                 menuMnemonicColor = theme.getColor("tmenu.mnemonic.highlighted");
-                topLevel = menu;
+                openMenu = menu;
             } else {
                 menuColor = theme.getColor("tmenu");
                 menuMnemonicColor = theme.getColor("tmenu.mnemonic");
@@ -869,6 +1171,21 @@ public class TApplication implements Runnable {
             getScreen().resetClipping();
             menu.drawChildren();
         }
+        return openMenu;
+    }
+
+    /**
+     * Draw the status bar, the mouse pointer, and the cursor, and then flush
+     * the screen.
+     *
+     * @param topLevel the window or menu whose status bar is shown
+     * @param activeWindow the front-most window, which owns the cursor
+     */
+    private void drawStatusBarAndCursor(final TWindow topLevel,
+        final TWindow activeWindow) {
+
+        // If true, the cursor is not visible
+        boolean cursor = false;
 
         // Draw the status bar of the top-level window
         TStatusBar statusBar = null;
@@ -877,8 +1194,8 @@ public class TApplication implements Runnable {
         }
         if (statusBar != null) {
             getScreen().resetClipping();
-            statusBar.setWidth(getScreen().getWidth());
-            statusBar.setY(getScreen().getHeight() - topLevel.getY());
+            statusBar.setGeometryQuietly(getScreen().getHeight()
+                - topLevel.getY(), getScreen().getWidth());
             statusBar.draw();
         } else {
             CellAttributes barColor = new CellAttributes();
@@ -894,8 +1211,8 @@ public class TApplication implements Runnable {
 
         // Place the cursor if it is visible
         TWidget activeWidget = null;
-        if (sorted.size() > 0) {
-            activeWidget = sorted.get(sorted.size() - 1).getActiveChild();
+        if (activeWindow != null) {
+            activeWidget = activeWindow.getActiveChild();
             if (activeWidget.isCursorVisible()) {
                 getScreen().putCursor(true, activeWidget.getCursorAbsoluteX(),
                     activeWidget.getCursorAbsoluteY());
@@ -910,10 +1227,8 @@ public class TApplication implements Runnable {
 
         // Flush the screen contents
         if (getScreen().isDirty()) {
-            backend.flushScreen();
+            flushScreen();
         }
-
-        repaint = false;
     }
 
     // ------------------------------------------------------------------------
@@ -925,91 +1240,249 @@ public class TApplication implements Runnable {
      */
     public void exit() {
         quit = true;
+        wakeRun();
+    }
+
+    /**
+     * Force every window to be drawn again from scratch on the next update,
+     * for example after the color theme changed.  Widgets should normally
+     * use TWidget.invalidate() instead.
+     */
+    public final void doRepaint() {
+        if (!repaint) {
+            repaint = true;
+            wakeRun();
+        }
+    }
+
+    /**
+     * Called by TWidget and TWindow to request a screen update: some widgets
+     * were invalidated, or windows moved.
+     */
+    final void widgetInvalidated() {
+        if (!invalid) {
+            invalid = true;
+            wakeRun();
+        }
+    }
+
+    /**
+     * See if there is anything for drawAll() to do.
+     *
+     * @return true if widgets or windows have changed, the mouse has
+     * moved, or the screen has changes not yet flushed, and the previous
+     * frame has been written out
+     */
+    private boolean needsDraw() {
+        if (flushing) {
+            // Changes wait for the frame being flushed; the flush wakes us
+            // when it is done.
+            return false;
+        }
+        return (repaint
+            || invalid
+            || (mouseX != oldMouseX)
+            || (mouseY != oldMouseY)
+            || getScreen().isDirty());
+    }
+
+    /**
+     * Schedule the next frame after drawing one.  Frames are normally
+     * 1/frameRate seconds apart, but if drawing and flushing is taking
+     * more than half of that (e.g. the remote side is not keeping up with
+     * the output) the interval stretches to twice the drawing time.
+     *
+     * @param frameStart System.nanoTime() when the frame started drawing
+     */
+    private void paceFrames(final long frameStart) {
+        long elapsed = System.nanoTime() - frameStart;
+        drawTime = ((drawTime * 3) + elapsed) / 4;
+
+        long interval = 1000000000L / frameRate;
+        if (drawTime * 2 > interval) {
+            interval = Math.min(drawTime * 2, MAX_FRAME_INTERVAL);
+        }
+        nextFrameTime = frameStart + interval;
     }
 
     /**
      * Run this application until it exits.
      */
     public void run() {
+        runThread = Thread.currentThread();
         while (!quit) {
-            // Timeout is in milliseconds, so default timeout after 1 second
-            // of inactivity.
-            long timeout = 1000;
-
-            // If I've got no updates to render, wait for something from the
-            // backend or a timer.
-            if (!repaint
-                && ((mouseX == oldMouseX) && (mouseY == oldMouseY))
-            ) {
-                // Never sleep longer than 50 millis.  We need time for
-                // windows with background tasks to update the display, and
-                // still flip buffers reasonably quickly in
-                // backend.flushPhysical().
-                timeout = getSleepTime(50);
-            }
+            long timeout = getRunTimeout();
 
             if (timeout > 0) {
                 // As of now, I've got nothing to do: no I/O, nothing from
                 // the consumer threads, no timers that need to run ASAP.  So
                 // wait until either the backend or the consumer threads have
                 // something to do.
-                try {
-                    if (debugThreads) {
-                        System.err.println("sleep " + timeout + " millis");
-                    }
-                    synchronized (this) {
-                        this.wait(timeout);
-                    }
-                } catch (InterruptedException e) {
-                    // I'm awake and don't care why, let's see what's going
-                    // on out there.
+                if (debugThreads) {
+                    System.err.println("sleep " + timeout + " millis");
                 }
-                repaint = true;
+                // The backend calls onBackendInput() after queueing input,
+                // which unparks this thread.  An unpark that comes between
+                // the check and the park makes the park return at once.
+                if (!hasPendingInput()) {
+                    LockSupport.parkNanos(this, timeout * 1000000L);
+                }
+                wakeRunRequested = false;
             }
 
             // Prevent stepping on the primary or secondary event handler.
             stopEventHandlers();
 
-            // Pull any pending I/O events
-            backend.getEvents(fillEventQueue);
+            runOnce();
 
-            // Dispatch each event to the appropriate handler, one at a time.
-            for (;;) {
-                TInputEvent event = null;
-                if (fillEventQueue.size() == 0) {
-                    break;
-                }
-                event = fillEventQueue.remove(0);
-                metaHandleEvent(event);
+            // Let the event handlers run again.
+            startEventHandlers();
+
+        } // while (!quit)
+
+        runThread = null;
+        runShutdown();
+    }
+
+    /**
+     * Run one pass of run() without waiting, for a TApplicationServer.
+     * Note package private access.
+     *
+     * @return the number of millis until this needs to be called again if
+     * no input arrives first, 0 to be called again as soon as possible, or
+     * -1 if the application has exited and shut down
+     */
+    long step() {
+        if (!quit) {
+            long timeout = getRunTimeout();
+            boolean pending = hasPendingInput();
+            wakeRunRequested = false;
+            if ((timeout > 0) && !pending) {
+                return timeout;
             }
 
-            // Wake a consumer thread if we have any pending events.
-            if (drainEventQueue.size() > 0) {
-                wakeEventHandler();
+            // If an event handler is busy, it will wake us when it is done.
+            if (!handleEventLock.tryAcquire()) {
+                return Math.max(timeout, 1);
             }
+            runOnce();
+            startEventHandlers();
+        }
+        if (quit) {
+            if (flushing) {
+                // Let the last frame finish before the backend shuts down;
+                // the flush wakes us when it is done.
+                return 1000;
+            }
+            runShutdown();
+            return -1;
+        }
+        return getRunTimeout();
+    }
 
-            // Process timers and call doIdle()'s
-            doIdle();
+    /**
+     * Figure out how long run() may wait before it needs to make another
+     * pass.
+     *
+     * @return the number of millis to wait, or 0 for no wait
+     */
+    private long getRunTimeout() {
+        // If I've got no updates to render, wait for something from the
+        // backend or a timer.
+        if (!needsDraw() && !hasPostedActions()) {
+            // Invalidating a widget, posting an action, input, and timers
+            // all wake us up, so wait up to a second.
+            return getSleepTime(1000);
+        }
 
-            // Update the screen
-            synchronized (getScreen()) {
-                drawAll();
+        // Something is waiting to be drawn or applied: sleep until the next
+        // frame is due, picking up more changes in the meantime.
+        long frameWait = nextFrameTime - System.nanoTime();
+        return getSleepTime(Math.max(0, (frameWait + 999999) / 1000000));
+    }
+
+    /**
+     * Pull events from the backend and see if there is anything for run()
+     * to do.
+     *
+     * @return true if there is input to dispatch or an event handler asked
+     * run() to wake up
+     */
+    private boolean hasPendingInput() {
+        backend.getEvents(backendEventQueue);
+        return (wakeRunRequested
+            || !backendEventQueue.isEmpty()
+            || !fillEventQueue.isEmpty());
+    }
+
+    /**
+     * Dispatch pending events, run timers and onIdle(), and draw the screen
+     * if a frame is due.  The caller must hold handleEventLock.
+     */
+    private void runOnce() {
+        // Pull any pending I/O events
+        backend.getEvents(backendEventQueue);
+        coalesceEvents(backendEventQueue);
+        fillEventQueue.addAll(backendEventQueue);
+        backendEventQueue.clear();
+
+        // Dispatch each event to the appropriate handler, one at a time.
+        for (;;) {
+            TInputEvent event = fillEventQueue.poll();
+            if (event == null) {
+                break;
             }
+            metaHandleEvent(event);
+        }
 
-            // Let the event handlers run again.
-            startEventHandlers();
+        // Wake a consumer thread if we have any pending events.
+        if (!drainEventQueue.isEmpty()) {
+            wakeEventHandler();
+        }
 
-        } // while (!quit)
+        // Apply results posted by background tasks once per frame
+        long now = System.nanoTime();
+        boolean frameDue = (now - nextFrameTime >= 0);
+        if (frameDue) {
+            runPostedActions();
+        }
 
+        // Process timers and call doIdle()'s
+        doIdle();
+
+        // Update the screen, at most once per frame interval
+        if (needsDraw()) {
+            if (frameDue) {
+                long drawStart = System.nanoTime();
+                drawStarted(drawStart);
+                frameDrawStart = drawStart;
+                synchronized (getScreen()) {
+                    drawAll();
+                }
+                paceFrames(now);
+            }
+        } else if (!flushing) {
+            // Whatever was dispatched changed nothing on screen.
+            undrawnDispatchCount = 0;
+        }
+    }
+
+    /**
+     * Stop the event handlers, backend, and windows after run() exits.
+     */
+    private void runShutdown() {
         // Shutdown the event consumer threads
         if (secondaryEventHandler != null) {
-            synchronized (secondaryEventHandler) {
-                secondaryEventHandler.notify();
-            }
+            secondaryEventHandler.wake();
         }
         if (primaryEventHandler != null) {
-            synchronized (primaryEventHandler) {
-                primaryEventHandler.notify();
+            primaryEventHandler.wake();
+        }
+
+        // Stop any background tasks
+        synchronized (windowTasks) {
+            if (taskExecutor != null) {
+                taskExecutor.shutdownNow();
             }
         }
 
@@ -1019,7 +1492,82 @@ public class TApplication implements Runnable {
         // Close all the windows.  This gives them an opportunity to release
         // resources.
         closeAllWindows();
+    }
+
+    /**
+     * See if a newer input event makes the one just before it redundant.
+     * That is the case for mouse motion with the same buttons held, and for
+     * screen resizes: only the latest position or size matters.
+     * Clicks, wheel, keystrokes, and commands are never merged.
+     *
+     * @param older the earlier event
+     * @param newer the event that immediately follows it
+     * @return true if older can be dropped
+     */
+    private static boolean supersedes(final TInputEvent older,
+        final TInputEvent newer) {
+
+        if ((older instanceof TMouseEvent) && (newer instanceof TMouseEvent)) {
+            TMouseEvent a = (TMouseEvent) older;
+            TMouseEvent b = (TMouseEvent) newer;
+            return ((a.getType() == TMouseEvent.Type.MOUSE_MOTION)
+                && (b.getType() == TMouseEvent.Type.MOUSE_MOTION)
+                && (a.isMouse1() == b.isMouse1())
+                && (a.isMouse2() == b.isMouse2())
+                && (a.isMouse3() == b.isMouse3()));
+        }
+        if ((older instanceof TResizeEvent) && (newer instanceof TResizeEvent)) {
+            return ((((TResizeEvent) older).getType()
+                    == TResizeEvent.Type.SCREEN)
+                && (((TResizeEvent) newer).getType()
+                    == TResizeEvent.Type.SCREEN));
+        }
+        return false;
+    }
+
+    /**
+     * Merge runs of mouse motion and resize events in place, keeping only
+     * the last event of each run.  Nothing is reordered.
+     *
+     * @param events the events to coalesce
+     */
+    private static void coalesceEvents(final List<TInputEvent> events) {
+        int n = 0;
+        for (int i = 0; i < events.size(); i++) {
+            TInputEvent event = events.get(i);
+            if ((n > 0) && supersedes(events.get(n - 1), event)) {
+                events.set(n - 1, event);
+            } else {
+                events.set(n, event);
+                n++;
+            }
+        }
+        while (events.size() > n) {
+            events.remove(events.size() - 1);
+        }
+    }
 
+    /**
+     * Take the next event for an event handler off drainEventQueue.  If
+     * the handler has fallen behind, a run of mouse motion or resize events
+     * waiting in the queue is returned as only its last event.  The caller
+     * must hold handleEventLock.
+     *
+     * @return the next event, or null if the queue is empty
+     */
+    private TInputEvent pollDrainEvent() {
+        TInputEvent event = drainEventQueue.poll();
+        if (event == null) {
+            return null;
+        }
+        for (;;) {
+            TInputEvent next = drainEventQueue.peek();
+            if ((next == null) || !supersedes(event, next)) {
+                return event;
+            }
+            drainEventQueue.poll();
+            event = next;
+        }
     }
 
     /**
@@ -1064,6 +1612,7 @@ public class TApplication implements Runnable {
                 oldMouseX = 0;
                 oldMouseY = 0;
             }
+            repaint = true;
             if (desktop != null) {
                 desktop.setDimensions(0, 0, resize.getWidth(),
                     resize.getHeight() - 1);
@@ -1071,16 +1620,15 @@ public class TApplication implements Runnable {
             return;
         }
 
-        // Peek at the mouse position
+        // Peek at the mouse position.  Only the main loop touches these, so
+        // there is no need to wait on the screen lock, which a
+        // TApplicationServer flush may be holding.
         if (event instanceof TMouseEvent) {
             TMouseEvent mouse = (TMouseEvent) event;
-            synchronized (getScreen()) {
-                if ((mouseX != mouse.getX()) || (mouseY != mouse.getY())) {
-                    oldMouseX = mouseX;
-                    oldMouseY = mouseY;
-                    mouseX = mouse.getX();
-                    mouseY = mouse.getY();
-                }
+            if ((mouseX != mouse.getX()) || (mouseY != mouse.getY())) {
+                // oldMouseX/Y stay where the pointer was last drawn.
+                mouseX = mouse.getX();
+                mouseY = mouse.getY();
             }
         }
 
@@ -1114,6 +1662,11 @@ public class TApplication implements Runnable {
         if ((activeMenu != null) && !(event instanceof TCommandEvent)) {
             TMenu menu = activeMenu;
 
+            if (event instanceof TPasteEvent) {
+                // Pasted text is not menu input
+                return;
+            }
+
             if (event instanceof TMouseEvent) {
                 TMouseEvent mouse = (TMouseEvent) event;
 
@@ -1180,6 +1733,7 @@ public class TApplication implements Runnable {
 
                 // Handle the keypress
                 if (onKeypress(keypress)) {
+                    repaint = true;
                     return;
                 }
             }
@@ -1187,12 +1741,14 @@ public class TApplication implements Runnable {
 
         if (event instanceof TCommandEvent) {
             if (onCommand((TCommandEvent) event)) {
+                repaint = true;
                 return;
             }
         }
 
         if (event instanceof TMenuEvent) {
             if (onMenu((TMenuEvent) event)) {
+                repaint = true;
                 return;
             }
         }
@@ -1214,7 +1770,9 @@ public class TApplication implements Runnable {
                 if (window.mouseWouldHit(mouse)) {
                     dispatchToDesktop = false;
                 }
-            } else if (event instanceof TKeypressEvent) {
+            } else if ((event instanceof TKeypressEvent)
+                || (event instanceof TPasteEvent)
+            ) {
                 dispatchToDesktop = false;
             }
 
@@ -1256,7 +1814,7 @@ public class TApplication implements Runnable {
             || (widget instanceof TFileOpenBox));
         secondaryEventReceiver = widget;
         secondaryEventHandler = new WidgetEventHandler(this, false);
-        (new Thread(secondaryEventHandler)).start();
+        ThreadSupport.startThread(secondaryEventHandler);
     }
 
     /**
@@ -1272,13 +1830,7 @@ public class TApplication implements Runnable {
         assert (oldLock);
 
         while (secondaryEventReceiver != null) {
-            synchronized (primaryEventHandler) {
-                try {
-                    primaryEventHandler.wait();
-                } catch (InterruptedException e) {
-                    // SQUASH
-                }
-            }
+            LockSupport.park(this);
         }
     }
 
@@ -1290,20 +1842,26 @@ public class TApplication implements Runnable {
             System.err.printf("doIdle()\n");
         }
 
-        // Now run any timers that have timed out
-        Date now = new Date();
-        List<TTimer> keepTimers = new LinkedList<TTimer>();
-        for (TTimer timer: timers) {
-            if (timer.getNextTick().getTime() <= now.getTime()) {
-                timer.tick();
+        // Now run any timers that have timed out.  Each is rescheduled or
+        // removed before its action runs, so that the action is free to add
+        // or remove timers itself.
+        long now = System.nanoTime();
+        for (;;) {
+            TTimer timer;
+            synchronized (timers) {
+                timer = timers.peek();
+                if ((timer == null) || (timer.getNextTick() - now > 0)) {
+                    break;
+                }
                 if (timer.recurring) {
-                    keepTimers.add(timer);
+                    timer.reschedule(now);
+                    timers.update(timer);
+                } else {
+                    timers.remove(timer);
                 }
-            } else {
-                keepTimers.add(timer);
             }
+            timer.tick();
         }
-        timers = keepTimers;
 
         // Call onIdle's
         for (TWindow window: windows) {
@@ -1463,6 +2021,7 @@ public class TApplication implements Runnable {
             }
             window.hidden = true;
             window.onHide();
+            invalid = true;
         }
     }
 
@@ -1486,6 +2045,7 @@ public class TApplication implements Runnable {
             window.hidden = false;
             window.onShow();
             activateWindow(window);
+            invalid = true;
         }
     }
 
@@ -1530,7 +2090,9 @@ public class TApplication implements Runnable {
         }
 
         // Perform window cleanup
+        cancelTasks(window);
         window.onClose();
+        invalid = true;
 
         // Check if we are closing a TMessageBox or similar
         if (secondaryEventReceiver != null) {
@@ -1542,9 +2104,7 @@ public class TApplication implements Runnable {
 
             // Wake the secondary thread, it will wake the primary as it
             // exits.
-            synchronized (secondaryEventHandler) {
-                secondaryEventHandler.notify();
-            }
+            secondaryEventHandler.wake();
         }
 
         // Permit desktop to be active if it is the only thing left.
@@ -1663,6 +2223,7 @@ public class TApplication implements Runnable {
         if (desktop != null) {
             desktop.setActive(false);
         }
+        invalid = true;
     }
 
     /**
@@ -2222,9 +2783,7 @@ public class TApplication implements Runnable {
      * @param event new event to add to the queue
      */
     public final void postMenuEvent(final TInputEvent event) {
-        synchronized (fillEventQueue) {
-            fillEventQueue.add(event);
-        }
+        fillEventQueue.add(event);
         closeMenu();
     }
 
@@ -2456,20 +3015,21 @@ public class TApplication implements Runnable {
      * @return number of milliseconds between now and the next timer event
      */
     private long getSleepTime(final long timeout) {
-        Date now = new Date();
-        long nowTime = now.getTime();
-        long sleepTime = timeout;
-        for (TTimer timer: timers) {
-            long nextTickTime = timer.getNextTick().getTime();
-            if (nextTickTime < nowTime) {
-                return 0;
-            }
-
-            long timeDifference = nextTickTime - nowTime;
-            if (timeDifference < sleepTime) {
-                sleepTime = timeDifference;
+        long nextTickTime;
+        synchronized (timers) {
+            TTimer timer = timers.peek();
+            if (timer == null) {
+                return timeout;
             }
+            nextTickTime = timer.getNextTick();
         }
+        long timeDifference = nextTickTime - System.nanoTime();
+        if (timeDifference <= 0) {
+            return 0;
+        }
+
+        // Round up so that we do not wake just short of the tick.
+        long sleepTime = Math.min(timeout, (timeDifference + 999999) / 1000000);
         assert (sleepTime >= 0);
         assert (sleepTime <= timeout);
         return sleepTime;
@@ -2504,6 +3064,250 @@ public class TApplication implements Runnable {
         }
     }
 
+    // ------------------------------------------------------------------------
+    // Latency metrics --------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The histograms behind getLatencyMetrics().
+     */
+    private static class Metrics implements LatencyMetrics {
+
+        /**
+         * Decode to dispatch times.
+         */
+        private final LatencyHistogram decodeToDispatch =
+            new LatencyHistogram();
+
+        /**
+         * Dispatch to draw times.
+         */
+        private final LatencyHistogram dispatchToDraw = new LatencyHistogram();
+
+        /**
+         * Draw to flush times.
+         */
+        private final LatencyHistogram drawToFlush = new LatencyHistogram();
+
+        /**
+         * Get the decode to dispatch histogram.
+         *
+         * @return the histogram
+         */
+        public LatencyHistogram getDecodeToDispatch() {
+            return decodeToDispatch;
+        }
+
+        /**
+         * Get the dispatch to draw histogram.
+         *
+         * @return the histogram
+         */
+        public LatencyHistogram getDispatchToDraw() {
+            return dispatchToDraw;
+        }
+
+        /**
+         * Get the draw to flush histogram.
+         *
+         * @return the histogram
+         */
+        public LatencyHistogram getDrawToFlush() {
+            return drawToFlush;
+        }
+
+        /**
+         * Forget everything recorded so far.
+         */
+        public void reset() {
+            decodeToDispatch.reset();
+            dispatchToDraw.reset();
+            drawToFlush.reset();
+        }
+    }
+
+    /**
+     * Input latency measurements.
+     */
+    private final Metrics latencyMetrics = new Metrics();
+
+    /**
+     * The times at which events were dispatched since the last screen
+     * update.  Guarded by handleEventLock.
+     */
+    private long [] undrawnDispatchTimes = new long[64];
+
+    /**
+     * The number of entries in undrawnDispatchTimes.  Guarded by
+     * handleEventLock.
+     */
+    private int undrawnDispatchCount = 0;
+
+    /**
+     * Get the input latency measurements for this application.
+     *
+     * @return the metrics
+     */
+    public final LatencyMetrics getLatencyMetrics() {
+        return latencyMetrics;
+    }
+
+    /**
+     * Note that an event handler is about to handle an event.  The caller
+     * must hold handleEventLock.
+     *
+     * @param event the event
+     */
+    private void eventDispatched(final TInputEvent event) {
+        long now = System.nanoTime();
+        latencyMetrics.decodeToDispatch.record(now - event.getTimestamp());
+        if (undrawnDispatchCount == undrawnDispatchTimes.length) {
+            long [] newTimes = new long[undrawnDispatchTimes.length * 2];
+            System.arraycopy(undrawnDispatchTimes, 0, newTimes, 0,
+                undrawnDispatchCount);
+            undrawnDispatchTimes = newTimes;
+        }
+        undrawnDispatchTimes[undrawnDispatchCount] = now;
+        undrawnDispatchCount++;
+    }
+
+    /**
+     * Note that a screen update is starting, which shows the effects of
+     * every event dispatched since the last one.  The caller must hold
+     * handleEventLock.
+     *
+     * @param now the System.nanoTime() at which drawing started
+     */
+    private void drawStarted(final long now) {
+        for (int i = 0; i < undrawnDispatchCount; i++) {
+            latencyMetrics.dispatchToDraw.record(now
+                - undrawnDispatchTimes[i]);
+        }
+        undrawnDispatchCount = 0;
+    }
+
+    // ------------------------------------------------------------------------
+    // Background tasks -------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * Run work on a background thread, away from the event handler and
+     * screen update threads.  The work must not touch widgets directly;
+     * it should hand results back with invokeLater().
+     *
+     * @param window the window that owns the work.  When it is closed, the
+     * work is cancelled and its thread interrupted.  If null, the work runs
+     * until it finishes or the application exits.
+     * @param task the work to do
+     * @return a Future that can be used to cancel the work
+     */
+    public final Future<?> runTask(final TWindow window, final Runnable task) {
+        WindowTask future = new WindowTask(window, task);
+        synchronized (windowTasks) {
+            if (taskExecutor == null) {
+                taskExecutor = Executors.newCachedThreadPool(
+                    ThreadSupport.getThreadFactory());
+            }
+            if (window != null) {
+                List<WindowTask> tasks = windowTasks.get(window);
+                if (tasks == null) {
+                    tasks = new ArrayList<WindowTask>();
+                    windowTasks.put(window, tasks);
+                }
+                tasks.add(future);
+            }
+            taskExecutor.execute(future);
+        }
+        return future;
+    }
+
+    /**
+     * Cancel the unfinished runTask() work owned by a window.
+     *
+     * @param window the window
+     */
+    private void cancelTasks(final TWindow window) {
+        List<WindowTask> tasks;
+        synchronized (windowTasks) {
+            tasks = windowTasks.remove(window);
+        }
+        if (tasks != null) {
+            for (WindowTask task: tasks) {
+                task.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * Run an action on the event thread just before the next screen
+     * update.  This may be called from any thread.
+     *
+     * @param action the action to run
+     */
+    public final void invokeLater(final TAction action) {
+        invokeLater(null, action, action);
+    }
+
+    /**
+     * Run an action on the event thread before the next screen update,
+     * replacing any action posted earlier with the same key that has not
+     * run yet.  Background work that produces a stream of values (progress,
+     * live data) can post each one, and only the latest is applied per
+     * screen update.  This may be called from any thread.
+     *
+     * @param window the window the action belongs to.  If it has been
+     * closed by the time the action would run, the action is dropped.  May
+     * be null.
+     * @param key the key to coalesce on
+     * @param action the action to run
+     */
+    public final void invokeLater(final TWindow window, final Object key,
+        final TAction action) {
+
+        boolean wake;
+        synchronized (postedActions) {
+            wake = postedActions.isEmpty();
+            postedActions.put(key, new PostedAction(window, action));
+        }
+        if (wake) {
+            wakeRun();
+        }
+    }
+
+    /**
+     * See if invokeLater() has posted actions that have not run yet.
+     *
+     * @return true if there are actions waiting for the next frame
+     */
+    private boolean hasPostedActions() {
+        synchronized (postedActions) {
+            return !postedActions.isEmpty();
+        }
+    }
+
+    /**
+     * Run the actions posted by invokeLater().  The caller must hold
+     * handleEventLock.
+     */
+    private void runPostedActions() {
+        synchronized (postedActions) {
+            if (postedActions.isEmpty()) {
+                return;
+            }
+            runningActions.addAll(postedActions.values());
+            postedActions.clear();
+        }
+        try {
+            for (PostedAction posted: runningActions) {
+                if ((posted.window == null) || hasWindow(posted.window)) {
+                    posted.action.DO();
+                }
+            }
+        } finally {
+            runningActions.clear();
+        }
+    }
+
     // ------------------------------------------------------------------------
     // Other TWindow constructors ---------------------------------------------
     // ------------------------------------------------------------------------
@@ -0,0 +1,309 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jexer.bits.ThreadSupport;
+
+/**
+ * TApplicationServer runs the main loop of many TApplications on a small,
+ * fixed pool of threads, in place of one thread calling run() for each
+ * application.  This is meant for servers such as the telnet demo, where
+ * most sessions are connected but idle.
+ *
+ * Each application's timers, onIdle(), and drawing happen in a step that
+ * is scheduled on the pool when the backend has input, an event handler
+ * finishes, or a timer or frame is due.  Steps for one application never
+ * overlap.  Only the main loop is pooled: each application still has its
+ * own event handler threads and its backend's reader thread, so the
+ * thread count still grows with the number of sessions, by one less per
+ * session than with run().
+ *
+ * Writing a frame to a remote client can block for as long as the client
+ * takes to read it.  So that N slow clients cannot tie up all N pool
+ * threads, a step only draws the frame; writing it out is handed to a
+ * separate flush executor, and that application draws no further frames
+ * until the write is done.  Changes made in the meantime are coalesced
+ * into the next frame.  The flush executor is a cached pool, so a slow
+ * client costs one blocked flush thread rather than a pool thread.  A
+ * screen resize from a client still waits for that client's flush to
+ * finish.
+ */
+public class TApplicationServer {
+
+    /**
+     * Session state: not scheduled.
+     */
+    private static final int IDLE = 0;
+
+    /**
+     * Session state: waiting on the pool to run its step.
+     */
+    private static final int QUEUED = 1;
+
+    /**
+     * Session state: step is running.
+     */
+    private static final int RUNNING = 2;
+
+    /**
+     * Session state: step is running, and another was asked for.
+     */
+    private static final int RUNNING_AGAIN = 3;
+
+    /**
+     * Session state: the application has exited.
+     */
+    private static final int DONE = 4;
+
+    /**
+     * One TApplication hosted on the pool.
+     */
+    private class Session implements Runnable {
+
+        /**
+         * The application.
+         */
+        private final TApplication application;
+
+        /**
+         * The scheduling state, one of IDLE, QUEUED, RUNNING,
+         * RUNNING_AGAIN, or DONE.
+         */
+        private final AtomicInteger state = new AtomicInteger(IDLE);
+
+        /**
+         * The pending timed wakeup, or null.  Only touched by run().
+         */
+        private ScheduledFuture<?> timer = null;
+
+        /**
+         * The callback that schedules another step.
+         */
+        private final Runnable wakeup = new Runnable() {
+            public void run() {
+                wake();
+            }
+        };
+
+        /**
+         * Public constructor.
+         *
+         * @param application the application to host
+         */
+        public Session(final TApplication application) {
+            this.application = application;
+        }
+
+        /**
+         * Schedule a step on the pool, unless one is already scheduled.  If
+         * a step is running now, it will run again when it is done.
+         */
+        public void wake() {
+            for (;;) {
+                int oldState = state.get();
+                switch (oldState) {
+                case IDLE:
+                    if (state.compareAndSet(IDLE, QUEUED)) {
+                        submit();
+                        return;
+                    }
+                    break;
+                case RUNNING:
+                    if (state.compareAndSet(RUNNING, RUNNING_AGAIN)) {
+                        return;
+                    }
+                    break;
+                default:
+                    // QUEUED, RUNNING_AGAIN, or DONE: nothing to do.
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Hand this session to the pool.
+         */
+        private void submit() {
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException e) {
+                // The server was shut down.
+                state.set(DONE);
+                sessions.remove(this);
+            }
+        }
+
+        /**
+         * Run one step of the application, then arrange for the next one.
+         */
+        public void run() {
+            state.set(RUNNING);
+            if (timer != null) {
+                timer.cancel(false);
+                timer = null;
+            }
+
+            long timeout;
+            try {
+                timeout = application.step();
+            } catch (RuntimeException e) {
+                // Do not let one session's bug take down the pool thread.
+                e.printStackTrace();
+                application.exit();
+                timeout = 0;
+            }
+
+            if (timeout < 0) {
+                application.setHostWakeup(null);
+                application.setHostFlushExecutor(null);
+                state.set(DONE);
+                sessions.remove(this);
+                if (stopping && sessions.isEmpty()) {
+                    shutdownExecutors();
+                }
+                return;
+            }
+            if (timeout > 0) {
+                try {
+                    timer = executor.schedule(wakeup, timeout,
+                        TimeUnit.MILLISECONDS);
+                } catch (RejectedExecutionException e) {
+                    // The server was shut down.
+                }
+            }
+            if ((timeout > 0) && state.compareAndSet(RUNNING, IDLE)) {
+                return;
+            }
+
+            // Either a step was asked for while this one was running, or the
+            // application wants another step right away.  Requeue behind
+            // the other sessions.
+            state.set(QUEUED);
+            submit();
+        }
+    }
+
+    /**
+     * The pool that runs session steps and timed wakeups.
+     */
+    private final ScheduledThreadPoolExecutor executor;
+
+    /**
+     * The threads that write frames out to the backends.  These may block
+     * on a slow client, so they are kept apart from the step pool.
+     */
+    private final ExecutorService flushExecutor;
+
+    /**
+     * If true, shutdown() was called and the pool stops when the last
+     * session exits.
+     */
+    private volatile boolean stopping = false;
+
+    /**
+     * The sessions that have not exited yet.
+     */
+    private final Set<Session> sessions =
+        Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+
+    /**
+     * Public constructor.
+     *
+     * @param threads the number of threads in the pool
+     * @throws IllegalArgumentException if threads is less than 1
+     */
+    public TApplicationServer(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be at least 1");
+        }
+        executor = new ScheduledThreadPoolExecutor(threads,
+            ThreadSupport.getThreadFactory());
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        flushExecutor = Executors.newCachedThreadPool(
+            ThreadSupport.getThreadFactory());
+    }
+
+    /**
+     * Start running an application on the pool.  The caller must not also
+     * call application.run().
+     *
+     * @param application the application to run
+     */
+    public void addApplication(final TApplication application) {
+        Session session = new Session(application);
+        sessions.add(session);
+        application.setHostWakeup(session.wakeup);
+        application.setHostFlushExecutor(flushExecutor);
+        session.wake();
+    }
+
+    /**
+     * Get the number of applications that have not exited yet.
+     *
+     * @return the number of applications
+     */
+    public int getApplicationCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Ask every application to exit, then stop the pool once they have shut
+     * down.
+     */
+    public void shutdown() {
+        stopping = true;
+        for (Session session: sessions) {
+            session.application.exit();
+            session.wake();
+        }
+        if (sessions.isEmpty()) {
+            shutdownExecutors();
+        }
+    }
+
+    /**
+     * Stop the pool and the flush threads once the last session is gone.
+     */
+    private void shutdownExecutors() {
+        executor.shutdown();
+        flushExecutor.shutdown();
+    }
+
+}
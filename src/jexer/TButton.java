@@ -93,6 +93,17 @@ public final class TButton extends TWidget {
             if (now - dispatchTime > DISPATCH_TIME) {
                 action.DO();
                 dispatchTime = now;
+
+                // Show the pressed look now, and the released look again
+                // once DISPATCH_TIME is up.
+                invalidate();
+                getApplication().addTimer(DISPATCH_TIME + 1, false,
+                    new TAction() {
+                        public void DO() {
+                            invalidate();
+                        }
+                    }
+                );
             }
         }
     }
@@ -222,6 +233,7 @@ public final class TButton extends TWidget {
         if ((mouseOnButton()) && (mouse.isMouse1())) {
             // Begin button press
             inButtonPress = true;
+            invalidate();
         }
     }
 
@@ -236,6 +248,7 @@ public final class TButton extends TWidget {
 
         if (inButtonPress && mouse.isMouse1()) {
             inButtonPress = false;
+            invalidate();
             // Dispatch the event
             dispatch();
         }
@@ -251,8 +264,9 @@ public final class TButton extends TWidget {
     public void onMouseMotion(final TMouseEvent mouse) {
         this.mouse = mouse;
 
-        if (!mouseOnButton()) {
+        if (inButtonPress && !mouseOnButton()) {
             inButtonPress = false;
+            invalidate();
         }
     }
 
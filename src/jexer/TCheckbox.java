@@ -59,7 +59,10 @@ public final class TCheckbox extends TWidget {
      * @param checked new checked value.
      */
     public void setChecked(final boolean checked) {
-        this.checked = checked;
+        if (this.checked != checked) {
+            this.checked = checked;
+            invalidate();
+        }
     }
 
     /**
@@ -137,7 +140,7 @@ public final class TCheckbox extends TWidget {
     public void onMouseDown(final TMouseEvent mouse) {
         if ((mouseOnCheckbox(mouse)) && (mouse.isMouse1())) {
             // Switch state
-            checked = !checked;
+            setChecked(!checked);
         }
     }
 
@@ -149,7 +152,7 @@ public final class TCheckbox extends TWidget {
     @Override
     public void onKeypress(final TKeypressEvent keypress) {
         if (keypress.equals(kbSpace)) {
-            checked = !checked;
+            setChecked(!checked);
             return;
         }
 
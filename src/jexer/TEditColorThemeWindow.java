@@ -575,6 +575,7 @@ public final class TEditColorThemeWindow extends TWindow {
                     dotY++;
                 }
                 color = getColorFromPosition(dotX, dotY);
+                invalidate();
                 return;
             } else if ((mouse.getX() > 0)
                 && (mouse.getX() < getWidth() - 1)
@@ -624,6 +625,7 @@ public final class TEditColorThemeWindow extends TWindow {
         foreground.color = attr.getForeColor();
         foreground.bold = attr.isBold();
         background.color = attr.getBackColor();
+        invalidate();
     }
 
     /**
@@ -640,6 +642,7 @@ public final class TEditColorThemeWindow extends TWindow {
         attr.setBold(foreground.bold);
         attr.setBackColor(background.color);
         editTheme.setColor(colorName, attr);
+        invalidate();
     }
 
     /**
@@ -691,6 +694,8 @@ public final class TEditColorThemeWindow extends TWindow {
                         attr.setTo(editTheme.getColor(key));
                         global.setColor(key, attr);
                     }
+                    // Every window has to be drawn again in the new colors.
+                    getApplication().doRepaint();
                     getApplication().closeWindow(TEditColorThemeWindow.this);
                 }
             }
@@ -31,6 +31,7 @@ package jexer;
 import jexer.bits.CellAttributes;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.teditor.Document;
 import jexer.teditor.Line;
 import jexer.teditor.Word;
@@ -106,10 +107,12 @@ public final class TEditorWidget extends TWidget {
     public void onMouseDown(final TMouseEvent mouse) {
         if (mouse.isMouseWheelUp()) {
             document.up();
+            invalidate();
             return;
         }
         if (mouse.isMouseWheelDown()) {
             document.down();
+            invalidate();
             return;
         }
 
@@ -163,7 +166,20 @@ public final class TEditorWidget extends TWidget {
         } else {
             // Pass other keys (tab etc.) on to TWidget
             super.onKeypress(keypress);
+            return;
         }
+        invalidate();
+    }
+
+    /**
+     * Handle pasted text.  Document cannot insert text in bulk yet, so this
+     * types it in one keystroke at a time, with newlines as Enter.
+     *
+     * @param paste paste event
+     */
+    @Override
+    public void onPaste(final TPasteEvent paste) {
+        super.onPaste(paste);
     }
 
 }
@@ -32,6 +32,7 @@ import jexer.bits.CellAttributes;
 import jexer.bits.GraphicsChars;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import static jexer.TKeypress.*;
 
 /**
@@ -62,6 +63,7 @@ public class TField extends TWidget {
         this.text = text;
         position = 0;
         windowStart = 0;
+        invalidate();
     }
 
     /**
@@ -247,6 +249,7 @@ public class TField extends TWidget {
                 position = text.length();
             }
             updateCursor();
+            invalidate();
             return;
         }
     }
@@ -268,6 +271,7 @@ public class TField extends TWidget {
                     windowStart--;
                 }
             }
+            invalidate();
             return;
         }
 
@@ -284,6 +288,7 @@ public class TField extends TWidget {
                     }
                 }
             }
+            invalidate();
             return;
         }
 
@@ -299,6 +304,7 @@ public class TField extends TWidget {
         if (keypress.equals(kbHome)) {
             position = 0;
             windowStart = 0;
+            invalidate();
             return;
         }
 
@@ -314,6 +320,7 @@ public class TField extends TWidget {
                     windowStart = 0;
                 }
             }
+            invalidate();
             return;
         }
 
@@ -322,6 +329,7 @@ public class TField extends TWidget {
                 text = text.substring(0, position)
                         + text.substring(position + 1);
             }
+            invalidate();
             return;
         }
 
@@ -338,6 +346,7 @@ public class TField extends TWidget {
                     windowStart--;
                 }
             }
+            invalidate();
             dispatch(false);
             return;
         }
@@ -347,60 +356,8 @@ public class TField extends TWidget {
             && !keypress.getKey().isCtrl()
         ) {
             // Plain old keystroke, process it
-            if ((position == text.length())
-                && (text.length() < getWidth())) {
-
-                // Append case
-                appendChar(keypress.getKey().getChar());
-            } else if ((position < text.length())
-                && (text.length() < getWidth())) {
-
-                // Overwrite or insert a character
-                if (insertMode == false) {
-                    // Replace character
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
-                    position++;
-                } else {
-                    // Insert character
-                    insertChar(keypress.getKey().getChar());
-                }
-            } else if ((position < text.length())
-                && (text.length() >= getWidth())) {
-
-                // Multiple cases here
-                if ((fixed == true) && (insertMode == true)) {
-                    // Buffer is full, do nothing
-                } else if ((fixed == true) && (insertMode == false)) {
-                    // Overwrite the last character, maybe move position
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
-                    if (position < getWidth() - 1) {
-                        position++;
-                    }
-                } else if ((fixed == false) && (insertMode == false)) {
-                    // Overwrite the last character, definitely move position
-                    text = text.substring(0, position)
-                            + keypress.getKey().getChar()
-                            + text.substring(position + 1);
-                    position++;
-                } else {
-                    if (position == text.length()) {
-                        // Append this character
-                        appendChar(keypress.getKey().getChar());
-                    } else {
-                        // Insert this character
-                        insertChar(keypress.getKey().getChar());
-                    }
-                }
-            } else {
-                assert (!fixed);
-
-                // Append this character
-                appendChar(keypress.getKey().getChar());
-            }
+            typeChar(keypress.getKey().getChar());
+            invalidate();
             dispatch(false);
             return;
         }
@@ -409,6 +366,109 @@ public class TField extends TWidget {
         super.onKeypress(keypress);
     }
 
+    /**
+     * Handle pasted text.  Only the first line is used, and it is inserted
+     * in one go.
+     *
+     * @param paste paste event
+     */
+    @Override
+    public void onPaste(final TPasteEvent paste) {
+        String str = paste.getText();
+        int end = str.indexOf('\n');
+        if (end >= 0) {
+            str = str.substring(0, end);
+        }
+        StringBuilder sb = new StringBuilder(str.length());
+        for (int i = 0; i < str.length(); i++) {
+            if (str.charAt(i) >= 0x20) {
+                sb.append(str.charAt(i));
+            }
+        }
+        if (sb.length() == 0) {
+            return;
+        }
+
+        if ((fixed == false) && (insertMode == true)) {
+            text = text.substring(0, position) + sb + text.substring(position);
+            position += sb.length();
+            if ((position - windowStart) >= getWidth()) {
+                windowStart = position - getWidth() + 1;
+            }
+        } else {
+            // Overwriting or limited to the display width, so go one
+            // character at a time.
+            for (int i = 0; i < sb.length(); i++) {
+                typeChar(sb.charAt(i));
+            }
+        }
+        invalidate();
+        dispatch(false);
+    }
+
+    /**
+     * Replace or insert a character at the cursor, depending on the insert
+     * mode and whether the field is fixed width.
+     *
+     * @param ch the character typed
+     */
+    protected void typeChar(final char ch) {
+        if ((position == text.length())
+            && (text.length() < getWidth())) {
+
+            // Append case
+            appendChar(ch);
+        } else if ((position < text.length())
+            && (text.length() < getWidth())) {
+
+            // Overwrite or insert a character
+            if (insertMode == false) {
+                // Replace character
+                text = text.substring(0, position)
+                        + ch
+                        + text.substring(position + 1);
+                position++;
+            } else {
+                // Insert character
+                insertChar(ch);
+            }
+        } else if ((position < text.length())
+            && (text.length() >= getWidth())) {
+
+            // Multiple cases here
+            if ((fixed == true) && (insertMode == true)) {
+                // Buffer is full, do nothing
+            } else if ((fixed == true) && (insertMode == false)) {
+                // Overwrite the last character, maybe move position
+                text = text.substring(0, position)
+                        + ch
+                        + text.substring(position + 1);
+                if (position < getWidth() - 1) {
+                    position++;
+                }
+            } else if ((fixed == false) && (insertMode == false)) {
+                // Overwrite the last character, definitely move position
+                text = text.substring(0, position)
+                        + ch
+                        + text.substring(position + 1);
+                position++;
+            } else {
+                if (position == text.length()) {
+                    // Append this character
+                    appendChar(ch);
+                } else {
+                    // Insert this character
+                    insertChar(ch);
+                }
+            }
+        } else {
+            assert (!fixed);
+
+            // Append this character
+            appendChar(ch);
+        }
+    }
+
     /**
      * Append char to the end of the field.
      *
@@ -59,7 +59,10 @@ public final class THScroller extends TWidget {
      * @param leftValue the new scroll value
      */
     public void setLeftValue(final int leftValue) {
-        this.leftValue = leftValue;
+        if (this.leftValue != leftValue) {
+            this.leftValue = leftValue;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -84,7 +87,10 @@ public final class THScroller extends TWidget {
      * @param rightValue the new scroll value
      */
     public void setRightValue(final int rightValue) {
-        this.rightValue = rightValue;
+        if (this.rightValue != rightValue) {
+            this.rightValue = rightValue;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -107,7 +113,10 @@ public final class THScroller extends TWidget {
      * @param value the new scroll value
      */
     public void setValue(final int value) {
-        this.value = value;
+        if (this.value != value) {
+            this.value = value;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -218,10 +227,7 @@ public final class THScroller extends TWidget {
         if (leftValue == rightValue) {
             return;
         }
-        value -= smallChange;
-        if (value < leftValue) {
-            value = leftValue;
-        }
+        setValue(Math.max(value - smallChange, leftValue));
     }
 
     /**
@@ -231,10 +237,7 @@ public final class THScroller extends TWidget {
         if (leftValue == rightValue) {
             return;
         }
-        value += smallChange;
-        if (value > rightValue) {
-            value = rightValue;
-        }
+        setValue(Math.min(value + smallChange, rightValue));
     }
 
     /**
@@ -244,10 +247,7 @@ public final class THScroller extends TWidget {
         if (leftValue == rightValue) {
             return;
         }
-        value -= bigChange;
-        if (value < leftValue) {
-            value = leftValue;
-        }
+        setValue(Math.max(value - bigChange, leftValue));
     }
 
     /**
@@ -257,24 +257,21 @@ public final class THScroller extends TWidget {
         if (rightValue == leftValue) {
             return;
         }
-        value += bigChange;
-        if (value > rightValue) {
-            value = rightValue;
-        }
+        setValue(Math.min(value + bigChange, rightValue));
     }
 
     /**
      * Go to the left edge of the scroller.
      */
     public void toLeft() {
-        value = leftValue;
+        setValue(leftValue);
     }
 
     /**
      * Go to the right edge of the scroller.
      */
     public void toRight() {
-        value = rightValue;
+        setValue(rightValue);
     }
 
     /**
@@ -315,10 +312,7 @@ public final class THScroller extends TWidget {
             && (mouse.getX() < boxPosition())
         ) {
             // Clicked between the left arrow and the box
-            value -= bigChange;
-            if (value < leftValue) {
-                value = leftValue;
-            }
+            setValue(Math.max(value - bigChange, leftValue));
             return;
         }
 
@@ -327,10 +321,7 @@ public final class THScroller extends TWidget {
             && (mouse.getX() < getWidth() - 1)
         ) {
             // Clicked between the box and the right arrow
-            value += bigChange;
-            if (value > rightValue) {
-                value = rightValue;
-            }
+            setValue(Math.min(value + bigChange, rightValue));
             return;
         }
     }
@@ -354,8 +345,8 @@ public final class THScroller extends TWidget {
             && (mouse.getX() < getWidth() - 1)
         ) {
             // Recompute value based on new box position
-            value = (rightValue - leftValue)
-                * (mouse.getX()) / (getWidth() - 3) + leftValue;
+            setValue((rightValue - leftValue)
+                * (mouse.getX()) / (getWidth() - 3) + leftValue);
             return;
         }
         inScroll = false;
@@ -67,6 +67,7 @@ public class TList extends TScrollableWidget {
      */
     public final void setSelectedIndex(final int index) {
         selectedString = index;
+        invalidate();
     }
 
     /**
@@ -90,6 +91,7 @@ public class TList extends TScrollableWidget {
         strings.clear();
         strings.addAll(list);
         reflowData();
+        invalidate();
     }
 
     /**
@@ -155,6 +157,7 @@ public class TList extends TScrollableWidget {
         if (getRightValue() < 0) {
             setRightValue(0);
         }
+        invalidate();
     }
 
     /**
@@ -294,7 +297,7 @@ public class TList extends TScrollableWidget {
         if ((mouse.getX() < getWidth() - 1)
             && (mouse.getY() < getHeight() - 1)) {
             if (getVerticalValue() + mouse.getY() < strings.size()) {
-                selectedString = getVerticalValue() + mouse.getY();
+                setSelectedIndex(getVerticalValue() + mouse.getY());
                 dispatchEnter();
             }
             return;
@@ -328,6 +331,7 @@ public class TList extends TScrollableWidget {
                     selectedString = strings.size() - 1;
                 }
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
@@ -344,6 +348,7 @@ public class TList extends TScrollableWidget {
                     selectedString = 0;
                 }
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
@@ -355,6 +360,7 @@ public class TList extends TScrollableWidget {
                     selectedString = 0;
                 }
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
@@ -366,6 +372,7 @@ public class TList extends TScrollableWidget {
                     selectedString = strings.size() - 1;
                 }
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
@@ -374,6 +381,7 @@ public class TList extends TScrollableWidget {
             if (strings.size() > 0) {
                 selectedString = 0;
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
@@ -382,6 +390,7 @@ public class TList extends TScrollableWidget {
             if (strings.size() > 0) {
                 selectedString = strings.size() - 1;
             }
+            invalidate();
             if (selectedString >= 0) {
                 dispatchMove();
             }
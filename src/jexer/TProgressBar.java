@@ -56,7 +56,10 @@ public final class TProgressBar extends TWidget {
      * @param minValue the value that corresponds to 0% progress
      */
     public void setMinValue(final int minValue) {
-        this.minValue = minValue;
+        if (this.minValue != minValue) {
+            this.minValue = minValue;
+            invalidate();
+        }
     }
 
     /**
@@ -79,7 +82,10 @@ public final class TProgressBar extends TWidget {
      * @param maxValue the value that corresponds to 100% progress
      */
     public void setMaxValue(final int maxValue) {
-        this.maxValue = maxValue;
+        if (this.maxValue != maxValue) {
+            this.maxValue = maxValue;
+            invalidate();
+        }
     }
 
     /**
@@ -102,7 +108,10 @@ public final class TProgressBar extends TWidget {
      * @param value the current value of the progress
      */
     public void setValue(final int value) {
-        this.value = value;
+        if (this.value != value) {
+            this.value = value;
+            invalidate();
+        }
     }
 
     /**
@@ -62,7 +62,10 @@ public final class TRadioButton extends TWidget {
      * is selected
      */
     void setSelected(final boolean selected) {
-        this.selected = selected;
+        if (this.selected != selected) {
+            this.selected = selected;
+            invalidate();
+        }
     }
 
     /**
@@ -157,7 +160,7 @@ public final class TRadioButton extends TWidget {
     public void onMouseDown(final TMouseEvent mouse) {
         if ((mouseOnRadioButton(mouse)) && (mouse.isMouse1())) {
             // Switch state
-            selected = !selected;
+            setSelected(!selected);
             if (selected) {
                 ((TRadioGroup) getParent()).setSelected(this);
             }
@@ -173,7 +176,7 @@ public final class TRadioButton extends TWidget {
     public void onKeypress(final TKeypressEvent keypress) {
 
         if (keypress.equals(kbSpace)) {
-            selected = !selected;
+            setSelected(!selected);
             if (selected) {
                 ((TRadioGroup) getParent()).setSelected(this);
             }
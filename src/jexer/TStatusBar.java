@@ -139,6 +139,7 @@ public final class TStatusBar extends TWidget {
      */
     public void setText(final String text) {
         this.text = text;
+        invalidate();
     }
 
     /**
@@ -260,6 +261,7 @@ public final class TStatusBar extends TWidget {
         for (TStatusBarKey key: keys) {
             if ((mouseOnShortcut(key)) && (mouse.isMouse1())) {
                 key.selected = true;
+                invalidate();
                 return true;
             }
         }
@@ -278,6 +280,7 @@ public final class TStatusBar extends TWidget {
         for (TStatusBarKey key: keys) {
             if (key.selected && mouse.isMouse1()) {
                 key.selected = false;
+                invalidate();
 
                 // Dispatch the event
                 getApplication().postMenuEvent(new TCommandEvent(key.cmd));
@@ -296,8 +299,9 @@ public final class TStatusBar extends TWidget {
         this.mouse = mouse;
 
         for (TStatusBarKey key: keys) {
-            if (!mouseOnShortcut(key)) {
+            if (key.selected && !mouseOnShortcut(key)) {
                 key.selected = false;
+                invalidate();
             }
         }
     }
@@ -33,14 +33,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
-import java.util.LinkedList;
-import java.util.List;
 import java.util.Map;
 
+import jexer.backend.LogicalScreen;
 import jexer.bits.Cell;
-import jexer.bits.CellAttributes;
+import jexer.bits.Color;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.event.TResizeEvent;
 import jexer.tterminal.DisplayLine;
 import jexer.tterminal.ECMA48;
@@ -61,6 +61,68 @@ public class TTerminalWindow extends TScrollableWindow {
      */
     private Process shell;
 
+    /**
+     * Draws me again on the event thread.  The emulator's reader thread
+     * posts it with invokeLater() whenever the display changes; posts that
+     * pile up before the next frame are coalesced into one.
+     */
+    private final TAction displayChanged = new TAction() {
+        public void DO() {
+            if (emulator.getChangeSequence() != drawnSequence) {
+                invalidate();
+            }
+        }
+    };
+
+    /**
+     * Checks again for the shell's exit code, when the emulator has seen
+     * end of input before the shell Process has been reaped.  Null when
+     * not waiting for that.
+     */
+    private TTimer exitTimer;
+
+    /**
+     * The emulator's reader thread updates the display behind my back, so
+     * have it tell me when it does, rather than checking for changes on a
+     * timer.
+     */
+    private void listenToEmulator() {
+        emulator.setDisplayListener(new Runnable() {
+            public void run() {
+                getApplication().invokeLater(TTerminalWindow.this,
+                    displayChanged, displayChanged);
+            }
+        });
+    }
+
+    /**
+     * A blank line for the rows above the top of the scrollback, kept so
+     * that those rows are not drawn again on every draw().
+     */
+    private DisplayLine blankLine;
+
+    /**
+     * The emulator's change sequence number as of the last draw().
+     */
+    private long drawnSequence = -1;
+
+    /**
+     * The emulator rows as of the last draw(), kept between draws so that
+     * only the rows that changed are drawn again.  It is the size of the
+     * window interior, or the emulator width if that is narrower.
+     */
+    private LogicalScreen emulatorSurface;
+
+    /**
+     * The line drawn on each row of emulatorSurface.
+     */
+    private DisplayLine [] drawnLines;
+
+    /**
+     * The generation of each line in drawnLines when it was drawn.
+     */
+    private long [] drawnGenerations;
+
     /**
      * Claim the keystrokes the emulator will need.
      */
@@ -201,6 +263,8 @@ public class TTerminalWindow extends TScrollableWindow {
 
         // Add shortcut text
         newStatusBar("Terminal session executing...");
+
+        listenToEmulator();
     }
 
     /**
@@ -267,6 +331,8 @@ public class TTerminalWindow extends TScrollableWindow {
 
         // Add shortcut text
         newStatusBar("Terminal session executing...");
+
+        listenToEmulator();
     }
 
     /**
@@ -284,77 +350,80 @@ public class TTerminalWindow extends TScrollableWindow {
             // Draw the box using my superclass
             super.draw();
 
-            List<DisplayLine> scrollback = emulator.getScrollbackBuffer();
-            List<DisplayLine> display = emulator.getDisplayBuffer();
+            drawnSequence = emulator.getChangeSequence();
 
             // Put together the visible rows
             int visibleHeight = getHeight() - 2;
-            int visibleBottom = scrollback.size() + display.size()
-                + getVerticalValue();
+            int visibleWidth = Math.min(emulator.getWidth(), getWidth() - 2);
+            if ((visibleHeight <= 0) || (visibleWidth <= 0)) {
+                return;
+            }
+            int visibleBottom = emulator.getLineCount() + getVerticalValue();
             assert (visibleBottom >= 0);
-
-            List<DisplayLine> preceedingBlankLines = new LinkedList<DisplayLine>();
             int visibleTop = visibleBottom - visibleHeight;
-            if (visibleTop < 0) {
-                for (int i = visibleTop; i < 0; i++) {
-                    preceedingBlankLines.add(emulator.getBlankDisplayLine());
-                }
-                visibleTop = 0;
-            }
-            assert (visibleTop >= 0);
 
-            List<DisplayLine> displayLines = new LinkedList<DisplayLine>();
-            displayLines.addAll(scrollback);
-            displayLines.addAll(display);
-
-            List<DisplayLine> visibleLines = new LinkedList<DisplayLine>();
-            visibleLines.addAll(preceedingBlankLines);
-            visibleLines.addAll(displayLines.subList(visibleTop,
-                    visibleBottom));
+            if ((emulatorSurface == null)
+                || (emulatorSurface.getWidth() != visibleWidth)
+                || (emulatorSurface.getHeight() != visibleHeight)
+            ) {
+                emulatorSurface = new LogicalScreen(visibleWidth,
+                    visibleHeight);
+                drawnLines = new DisplayLine[visibleHeight];
+                drawnGenerations = new long[visibleHeight];
+            }
 
-            visibleHeight -= visibleLines.size();
-            assert (visibleHeight >= 0);
+            // Now draw the emulator screen, only looking at the visible
+            // lines, and skipping the ones that are already drawn
+            Cell cell = new Cell();
+            for (int row = 0; row < visibleHeight; row++) {
+                int index = visibleTop + row;
+                DisplayLine line;
+                if (index < 0) {
+                    if (blankLine == null) {
+                        blankLine = emulator.getBlankDisplayLine();
+                    }
+                    line = blankLine;
+                } else {
+                    line = emulator.getLine(index);
+                }
+                if ((line == drawnLines[row])
+                    && (line.getGeneration() == drawnGenerations[row])
+                ) {
+                    continue;
+                }
+                drawnLines[row] = line;
+                drawnGenerations[row] = line.getGeneration();
 
-            // Now draw the emulator screen
-            int row = 1;
-            for (DisplayLine line: visibleLines) {
                 int widthMax = emulator.getWidth();
                 if (line.isDoubleWidth()) {
                     widthMax /= 2;
                 }
-                if (widthMax > getWidth() - 2) {
-                    widthMax = getWidth() - 2;
+                if (widthMax > visibleWidth) {
+                    widthMax = visibleWidth;
                 }
                 for (int i = 0; i < widthMax; i++) {
-                    Cell ch = line.charAt(i);
-                    Cell newCell = new Cell();
-                    newCell.setTo(ch);
-                    boolean reverse = line.isReverseColor() ^ ch.isReverse();
-                    newCell.setReverse(false);
+                    line.charAt(i, cell);
+                    boolean reverse = line.isReverseColor() ^ cell.isReverse();
+                    cell.setReverse(false);
                     if (reverse) {
-                        newCell.setBackColor(ch.getForeColor());
-                        newCell.setForeColor(ch.getBackColor());
+                        Color foreColor = cell.getForeColor();
+                        cell.setForeColor(cell.getBackColor());
+                        cell.setBackColor(foreColor);
                     }
                     if (line.isDoubleWidth()) {
-                        getScreen().putCharXY((i * 2) + 1, row, newCell);
-                        getScreen().putCharXY((i * 2) + 2, row, ' ', newCell);
+                        emulatorSurface.putCharXY(i * 2, row, cell);
+                        emulatorSurface.putCharXY((i * 2) + 1, row, ' ',
+                            cell);
                     } else {
-                        getScreen().putCharXY(i + 1, row, newCell);
+                        emulatorSurface.putCharXY(i, row, cell);
                     }
                 }
-                row++;
-                if (row == getHeight() - 1) {
-                    // Don't overwrite the box edge
-                    break;
-                }
-            }
-            CellAttributes background = new CellAttributes();
-            // Fill in the blank lines on bottom
-            for (int i = 0; i < visibleHeight; i++) {
-                getScreen().hLineXY(1, i + row, getWidth() - 2, ' ',
-                    background);
             }
 
+            // I draw onto my own window surface, so (1, 1) is just inside
+            // the border.
+            getScreen().copyScreen(emulatorSurface, 1, 1);
+
         } // synchronized (emulator)
 
     }
@@ -364,6 +433,11 @@ public class TTerminalWindow extends TScrollableWindow {
      */
     @Override
     public void onClose() {
+        emulator.setDisplayListener(null);
+        if (exitTimer != null) {
+            getApplication().removeTimer(exitTimer);
+            exitTimer = null;
+        }
         emulator.close();
         if (shell != null) {
             terminateShellChildProcess();
@@ -413,8 +487,18 @@ public class TTerminalWindow extends TScrollableWindow {
                         "code " + rc + ".");
                 } catch (IllegalThreadStateException e) {
                     // The emulator thread has exited, but the shell Process
-                    // hasn't figured that out yet.  Do nothing, we will see
-                    // this in a future tick.
+                    // hasn't figured that out yet.  Nothing else will wake
+                    // me now, so look again shortly.
+                    if (exitTimer == null) {
+                        exitTimer = getApplication().addTimer(50, false,
+                            new TAction() {
+                                public void DO() {
+                                    exitTimer = null;
+                                    invalidate();
+                                }
+                            }
+                        );
+                    }
                 }
             } else if (emulator.isReading() && (shell != null)) {
                 // The shell might be dead, let's check
@@ -475,9 +559,7 @@ public class TTerminalWindow extends TScrollableWindow {
             readEmulatorState();
 
             // Vertical scrollbar
-            setTopValue(getHeight() - 2
-                - (emulator.getScrollbackBuffer().size()
-                    + emulator.getDisplayBuffer().size()));
+            setTopValue(getHeight() - 2 - emulator.getLineCount());
             setVerticalBigChange(getHeight() - 2);
 
         } // synchronized (emulator)
@@ -534,8 +616,10 @@ public class TTerminalWindow extends TScrollableWindow {
 
         // Synchronize against the emulator so we don't stomp on its reader
         // thread.
+        boolean reading;
         synchronized (emulator) {
-            if (emulator.isReading()) {
+            reading = emulator.isReading();
+            if (reading) {
                 // Get out of scrollback
                 setVerticalValue(0);
                 emulator.keypress(keypress.getKey());
@@ -549,14 +633,35 @@ public class TTerminalWindow extends TScrollableWindow {
                 }
 
                 readEmulatorState();
-                return;
             }
         }
+        if (reading) {
+            // Local echo does not go through the display listener.
+            displayChanged.DO();
+            return;
+        }
 
         // Process is closed, honor "normal" TUI keystrokes
         super.onKeypress(keypress);
     }
 
+    /**
+     * Handle pasted text by sending it to the remote side in one write.
+     *
+     * @param paste paste event
+     */
+    @Override
+    public void onPaste(final TPasteEvent paste) {
+        synchronized (emulator) {
+            if (emulator.isReading()) {
+                // Get out of scrollback
+                setVerticalValue(0);
+                emulator.paste(paste.getText());
+                readEmulatorState();
+            }
+        }
+    }
+
     /**
      * Handle mouse press events.
      *
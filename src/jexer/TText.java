@@ -113,6 +113,7 @@ public final class TText extends TScrollableWidget {
     public void setText(final String text) {
         this.text = text;
         reflowData();
+        invalidate();
     }
 
     /**
@@ -177,6 +178,7 @@ public final class TText extends TScrollableWidget {
     public void setJustification(final Justification justification) {
         this.justification = justification;
         reflowData();
+        invalidate();
     }
 
     /**
@@ -246,6 +248,7 @@ public final class TText extends TScrollableWidget {
             }
         }
         computeBounds();
+        invalidate();
     }
 
     /**
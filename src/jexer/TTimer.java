@@ -28,8 +28,6 @@
  */
 package jexer;
 
-import java.util.Date;
-
 /**
  * TTimer implements a simple timer.
  */
@@ -41,22 +39,29 @@ public final class TTimer {
     boolean recurring = false;
 
     /**
-     * Duration (in millis) between ticks if this is a recurring timer.
+     * Duration (in nanos) between ticks if this is a recurring timer.
      */
     private long duration = 0;
 
     /**
-     * The next time this timer needs to be ticked.
+     * The next time this timer needs to be ticked, in System.nanoTime()
+     * units.
      */
-    private Date nextTick;
+    private long nextTick;
+
+    /**
+     * Position in the TTimerQueue heap, or -1 if this timer is not
+     * scheduled.  Note package private access.
+     */
+    int heapIndex = -1;
 
     /**
      * Get the next time this timer needs to be ticked.  Note package private
      * access.
      *
-     * @return time at which action should be called
+     * @return System.nanoTime() value at which action should be called
      */
-    Date getNextTick() {
+    long getNextTick() {
         return nextTick;
     }
 
@@ -72,11 +77,17 @@ public final class TTimer {
         if (action != null) {
             action.DO();
         }
-        // Set next tick
-        Date ticked = new Date();
-        if (recurring) {
-            nextTick = new Date(ticked.getTime() + duration);
-        }
+    }
+
+    /**
+     * Set the next tick for a recurring timer.  A zero duration still moves
+     * the tick forward by one nanosecond, so that a timer is ticked at most
+     * once per pass over the queue.  Note package private access.
+     *
+     * @param now the current System.nanoTime()
+     */
+    void reschedule(final long now) {
+        nextTick = now + Math.max(duration, 1);
     }
 
     /**
@@ -89,11 +100,10 @@ public final class TTimer {
     TTimer(final long duration, final boolean recurring, final TAction action) {
 
         this.recurring = recurring;
-        this.duration  = duration;
+        this.duration  = duration * 1000000L;
         this.action    = action;
 
-        Date now = new Date();
-        nextTick = new Date(now.getTime() + duration);
+        nextTick = System.nanoTime() + this.duration;
     }
 
 }
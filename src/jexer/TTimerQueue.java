@@ -0,0 +1,176 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer;
+
+/**
+ * TTimerQueue is a binary min-heap of TTimers ordered by their next tick.
+ * Each timer records its own position in the heap, so that removal does not
+ * need to search for it.  Scheduling, rescheduling, and removal are
+ * O(log n), finding the next deadline is O(1), and nothing is allocated
+ * except when the heap array grows.
+ */
+final class TTimerQueue {
+
+    /**
+     * The heap.  heap[0] is the timer with the earliest tick.
+     */
+    private TTimer [] heap = new TTimer[16];
+
+    /**
+     * Number of timers in the heap.
+     */
+    private int size = 0;
+
+    /**
+     * Get the number of scheduled timers.
+     *
+     * @return the number of timers
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the timer that will be due first.
+     *
+     * @return the timer with the earliest tick, or null if there are no
+     * timers
+     */
+    public TTimer peek() {
+        return (size == 0 ? null : heap[0]);
+    }
+
+    /**
+     * Add a timer.  Adding a timer that is already scheduled does nothing.
+     *
+     * @param timer the timer to add
+     */
+    public void add(final TTimer timer) {
+        if (timer.heapIndex >= 0) {
+            return;
+        }
+        if (size == heap.length) {
+            TTimer [] newHeap = new TTimer[heap.length * 2];
+            System.arraycopy(heap, 0, newHeap, 0, size);
+            heap = newHeap;
+        }
+        siftUp(size, timer);
+        size++;
+    }
+
+    /**
+     * Remove a timer.  Removing a timer that is not scheduled does nothing.
+     *
+     * @param timer the timer to remove
+     */
+    public void remove(final TTimer timer) {
+        int i = timer.heapIndex;
+        if ((i < 0) || (i >= size) || (heap[i] != timer)) {
+            return;
+        }
+        timer.heapIndex = -1;
+        size--;
+        TTimer last = heap[size];
+        heap[size] = null;
+        if (i == size) {
+            return;
+        }
+        siftDown(i, last);
+        if (heap[i] == last) {
+            siftUp(i, last);
+        }
+    }
+
+    /**
+     * Move a timer to its correct position after its tick has moved later.
+     *
+     * @param timer the timer whose tick changed
+     */
+    public void update(final TTimer timer) {
+        int i = timer.heapIndex;
+        if ((i >= 0) && (i < size) && (heap[i] == timer)) {
+            siftDown(i, timer);
+        }
+    }
+
+    /**
+     * Place a timer at or above a heap position.
+     *
+     * @param index the empty position to start from
+     * @param timer the timer to place
+     */
+    private void siftUp(final int index, final TTimer timer) {
+        int i = index;
+        long tick = timer.getNextTick();
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            TTimer p = heap[parent];
+            if (tick - p.getNextTick() >= 0) {
+                break;
+            }
+            heap[i] = p;
+            p.heapIndex = i;
+            i = parent;
+        }
+        heap[i] = timer;
+        timer.heapIndex = i;
+    }
+
+    /**
+     * Place a timer at or below a heap position.
+     *
+     * @param index the empty position to start from
+     * @param timer the timer to place
+     */
+    private void siftDown(final int index, final TTimer timer) {
+        int i = index;
+        long tick = timer.getNextTick();
+        int half = size >>> 1;
+        while (i < half) {
+            int child = (i << 1) + 1;
+            TTimer c = heap[child];
+            int right = child + 1;
+            if ((right < size)
+                && (heap[right].getNextTick() - c.getNextTick() < 0)
+            ) {
+                child = right;
+                c = heap[child];
+            }
+            if (tick - c.getNextTick() <= 0) {
+                break;
+            }
+            heap[i] = c;
+            c.heapIndex = i;
+            i = child;
+        }
+        heap[i] = timer;
+        timer.heapIndex = i;
+    }
+
+}
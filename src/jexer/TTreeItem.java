@@ -78,6 +78,7 @@ public class TTreeItem extends TWidget {
      */
     public final void setText(final String text) {
         this.text = text;
+        invalidate();
     }
 
     /**
@@ -100,7 +101,10 @@ public class TTreeItem extends TWidget {
      * @param expanded new value
      */
     public final void setExpanded(final boolean expanded) {
-        this.expanded = expanded;
+        if (this.expanded != expanded) {
+            this.expanded = expanded;
+            invalidate();
+        }
     }
 
     /**
@@ -161,7 +165,10 @@ public class TTreeItem extends TWidget {
      * @param invisible new value
      */
     public final void setInvisible(final boolean invisible) {
-        this.invisible = invisible;
+        if (this.invisible != invisible) {
+            this.invisible = invisible;
+            invalidate();
+        }
     }
 
     /**
@@ -184,7 +191,10 @@ public class TTreeItem extends TWidget {
      * @param selected new value
      */
     public final void setSelected(final boolean selected) {
-        this.selected = selected;
+        if (this.selected != selected) {
+            this.selected = selected;
+            invalidate();
+        }
     }
 
     /**
@@ -315,7 +325,7 @@ public class TTreeItem extends TWidget {
      */
     public void unselect() {
         if (selected == true) {
-            selected = false;
+            setSelected(false);
             view.setSelected(null);
         }
         for (TWidget widget: getChildren()) {
@@ -338,7 +348,7 @@ public class TTreeItem extends TWidget {
         ) {
             if (selectable) {
                 // Flip expanded flag
-                expanded = !expanded;
+                setExpanded(!expanded);
                 if (expanded == false) {
                     // Unselect children that became invisible
                     unselect();
@@ -379,7 +389,7 @@ public class TTreeItem extends TWidget {
         ) {
             if (selectable) {
                 // Flip expanded flag
-                expanded = !expanded;
+                setExpanded(!expanded);
                 if (expanded == false) {
                     // Unselect children that became invisible
                     unselect();
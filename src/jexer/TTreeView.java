@@ -58,6 +58,7 @@ public class TTreeView extends TScrollableWidget {
      */
     public final void setTreeRoot(final TTreeItem treeRoot) {
         this.treeRoot = treeRoot;
+        invalidate();
     }
 
     /**
@@ -92,6 +93,7 @@ public class TTreeView extends TScrollableWidget {
 
         this.treeRoot = treeRoot;
         this.centerWindow = centerWindow;
+        invalidate();
     }
 
     /**
@@ -151,6 +153,7 @@ public class TTreeView extends TScrollableWidget {
             selectedItem.setSelected(false);
         }
         selectedItem = item;
+        invalidate();
     }
 
     /**
@@ -235,6 +238,7 @@ public class TTreeView extends TScrollableWidget {
         }
         getChildren().add(hScroller);
         getChildren().add(vScroller);
+        invalidate();
     }
 
     /**
@@ -59,7 +59,10 @@ public final class TVScroller extends TWidget {
      * @param topValue the new scroll value
      */
     public void setTopValue(final int topValue) {
-        this.topValue = topValue;
+        if (this.topValue != topValue) {
+            this.topValue = topValue;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -84,7 +87,10 @@ public final class TVScroller extends TWidget {
      * @param bottomValue the new scroll value
      */
     public void setBottomValue(final int bottomValue) {
-        this.bottomValue = bottomValue;
+        if (this.bottomValue != bottomValue) {
+            this.bottomValue = bottomValue;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -107,7 +113,10 @@ public final class TVScroller extends TWidget {
      * @param value the new scroll value
      */
     public void setValue(final int value) {
-        this.value = value;
+        if (this.value != value) {
+            this.value = value;
+            getParent().invalidate();
+        }
     }
 
     /**
@@ -218,10 +227,7 @@ public final class TVScroller extends TWidget {
         if (bottomValue == topValue) {
             return;
         }
-        value -= smallChange;
-        if (value < topValue) {
-            value = topValue;
-        }
+        setValue(Math.max(value - smallChange, topValue));
     }
 
     /**
@@ -231,10 +237,7 @@ public final class TVScroller extends TWidget {
         if (bottomValue == topValue) {
             return;
         }
-        value += smallChange;
-        if (value > bottomValue) {
-            value = bottomValue;
-        }
+        setValue(Math.min(value + smallChange, bottomValue));
     }
 
     /**
@@ -244,10 +247,7 @@ public final class TVScroller extends TWidget {
         if (bottomValue == topValue) {
             return;
         }
-        value -= bigChange;
-        if (value < topValue) {
-            value = topValue;
-        }
+        setValue(Math.max(value - bigChange, topValue));
     }
 
     /**
@@ -257,24 +257,21 @@ public final class TVScroller extends TWidget {
         if (bottomValue == topValue) {
             return;
         }
-        value += bigChange;
-        if (value > bottomValue) {
-            value = bottomValue;
-        }
+        setValue(Math.min(value + bigChange, bottomValue));
     }
 
     /**
      * Go to the top edge of the scroller.
      */
     public void toTop() {
-        value = topValue;
+        setValue(topValue);
     }
 
     /**
      * Go to the bottom edge of the scroller.
      */
     public void toBottom() {
-        value = bottomValue;
+        setValue(bottomValue);
     }
 
     /**
@@ -314,10 +311,7 @@ public final class TVScroller extends TWidget {
             && (mouse.getY() < boxPosition())
         ) {
             // Clicked between the top arrow and the box
-            value -= bigChange;
-            if (value < topValue) {
-                value = topValue;
-            }
+            setValue(Math.max(value - bigChange, topValue));
             return;
         }
 
@@ -326,10 +320,7 @@ public final class TVScroller extends TWidget {
             && (mouse.getY() < getHeight() - 1)
         ) {
             // Clicked between the box and the bottom arrow
-            value += bigChange;
-            if (value > bottomValue) {
-                value = bottomValue;
-            }
+            setValue(Math.min(value + bigChange, bottomValue));
             return;
         }
     }
@@ -351,8 +342,8 @@ public final class TVScroller extends TWidget {
             && (mouse.getY() < getHeight() - 1)
         ) {
             // Recompute value based on new box position
-            value = (bottomValue - topValue)
-                * (mouse.getY()) / (getHeight() - 3) + topValue;
+            setValue((bottomValue - topValue)
+                * (mouse.getY()) / (getHeight() - 3) + topValue);
             return;
         }
 
@@ -39,6 +39,7 @@ import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.event.TResizeEvent;
 import jexer.menu.TMenu;
 import static jexer.TKeypress.*;
@@ -108,7 +109,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param active if true, this widget will receive events
      */
     public final void setActive(final boolean active) {
-        this.active = active;
+        if (this.active != active) {
+            this.active = active;
+            invalidate();
+        }
     }
 
     /**
@@ -145,7 +149,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param x absolute X position of the top-left corner
      */
     public final void setX(final int x) {
-        this.x = x;
+        if (this.x != x) {
+            this.x = x;
+            invalidateParent();
+        }
     }
 
     /**
@@ -168,7 +175,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param y absolute Y position of the top-left corner
      */
     public final void setY(final int y) {
-        this.y = y;
+        if (this.y != y) {
+            this.y = y;
+            invalidateParent();
+        }
     }
 
     /**
@@ -191,7 +201,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param width new widget width
      */
     public final void setWidth(final int width) {
-        this.width = width;
+        if (this.width != width) {
+            this.width = width;
+            invalidateParent();
+        }
     }
 
     /**
@@ -214,7 +227,10 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param height new widget height
      */
     public final void setHeight(final int height) {
-        this.height = height;
+        if (this.height != height) {
+            this.height = height;
+            invalidateParent();
+        }
     }
 
     /**
@@ -234,6 +250,22 @@ public abstract class TWidget implements Comparable<TWidget> {
         setHeight(height);
     }
 
+    /**
+     * Set Y position and width without invalidating anything.  TApplication
+     * uses this to keep a window's status bar on the bottom row of the
+     * screen every frame.  The status bar is drawn straight to the screen
+     * rather than into its window's surface, so moving it (for instance
+     * when its window is dragged) must not make the window draw itself
+     * again.
+     *
+     * @param y absolute Y position of the top-left corner
+     * @param width new widget width
+     */
+    final void setGeometryQuietly(final int y, final int width) {
+        this.y = y;
+        this.width = width;
+    }
+
     /**
      * My tab order inside a window or containing widget.
      */
@@ -259,6 +291,9 @@ public abstract class TWidget implements Comparable<TWidget> {
      * @param enabled if true, this widget can be tabbed to or receive events
      */
     public final void setEnabled(final boolean enabled) {
+        if (this.enabled != enabled) {
+            invalidate();
+        }
         this.enabled = enabled;
         if (!enabled) {
             active = false;
@@ -503,6 +538,11 @@ public abstract class TWidget implements Comparable<TWidget> {
         assert (getScreen() != null);
         Screen screen = getScreen();
 
+        // Everything below me is about to be drawn.  Clear the flags first
+        // so that an invalidate() that races with draw() is not lost.
+        invalid = false;
+        childInvalid = false;
+
         // Special case: TStatusBar is drawn by TApplication, not anything
         // else.
         if (this instanceof TStatusBar) {
@@ -538,8 +578,8 @@ public abstract class TWidget implements Comparable<TWidget> {
         }
 
         // Set my offset
-        screen.setOffsetX(getAbsoluteX());
-        screen.setOffsetY(getAbsoluteY());
+        screen.setOffsetX(getAbsoluteX() - window.getDrawingX());
+        screen.setOffsetY(getAbsoluteY() - window.getDrawingY());
 
         // Draw me
         draw();
@@ -550,6 +590,183 @@ public abstract class TWidget implements Comparable<TWidget> {
         }
     }
 
+    // ------------------------------------------------------------------------
+    // Retained-mode drawing --------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * If true, this widget and its children need to be drawn again.
+     */
+    private volatile boolean invalid = true;
+
+    /**
+     * If true, somewhere below this widget is a child that needs to be
+     * drawn again.
+     */
+    private volatile boolean childInvalid = false;
+
+    /**
+     * See if this widget needs to be drawn again.
+     *
+     * @return true if this widget has been invalidated since it was last
+     * drawn
+     */
+    public final boolean isInvalid() {
+        return invalid;
+    }
+
+    /**
+     * Mark this widget as needing to be drawn again.  Widgets call this
+     * whenever their state changes in a way that changes what draw() puts
+     * on the screen.  On the next screen update my window draws only this
+     * widget (and what is underneath it) into its surface again, rather
+     * than the entire window.
+     */
+    public final void invalidate() {
+        invalid = true;
+        if (window == null) {
+            // Not attached yet, I will be drawn with my window.
+            return;
+        }
+        for (TWidget widget = this; widget != window;) {
+            widget = widget.parent;
+            widget.childInvalid = true;
+        }
+        TApplication application = window.getApplication();
+        if (application != null) {
+            application.widgetInvalidated();
+        }
+    }
+
+    /**
+     * My position or size changed.  Whatever I used to cover has to be
+     * drawn again, so invalidate my parent.  If I am a window, my surface
+     * only needs to be composited somewhere else (or reallocated, if my
+     * size changed).
+     */
+    private void invalidateParent() {
+        if (window == null) {
+            return;
+        }
+        if (this == window) {
+            TApplication application = window.getApplication();
+            if (application != null) {
+                application.widgetInvalidated();
+            }
+            return;
+        }
+        parent.invalidate();
+    }
+
+    /**
+     * Collect the top-most invalid widgets at or below this one.  A child
+     * that overlaps one of its siblings cannot be redrawn on its own, so in
+     * that case this widget is collected instead.
+     *
+     * @param widgets the list to add invalid widgets to
+     */
+    final void getInvalidWidgets(final List<TWidget> widgets) {
+        if (this instanceof TStatusBar) {
+            // TApplication redraws the status bar every time anyway.
+            invalid = false;
+            return;
+        }
+        if (invalid) {
+            widgets.add(this);
+            return;
+        }
+        if (!childInvalid) {
+            return;
+        }
+        childInvalid = false;
+        for (TWidget widget: children) {
+            if ((widget.invalid || widget.childInvalid)
+                && overlapsSibling(widget)
+            ) {
+                widgets.add(this);
+                return;
+            }
+        }
+        for (TWidget widget: children) {
+            widget.getInvalidWidgets(widgets);
+        }
+    }
+
+    /**
+     * See if a child widget overlaps any of its siblings.
+     *
+     * @param child one of my children
+     * @return true if child overlaps another child
+     */
+    private boolean overlapsSibling(final TWidget child) {
+        for (TWidget widget: children) {
+            if ((widget != child)
+                && (widget.x < child.x + child.width)
+                && (child.x < widget.x + widget.width)
+                && (widget.y < child.y + child.height)
+                && (child.y < widget.y + widget.height)
+            ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Called by TWindow to redraw only this widget and its children.  My
+     * parents are drawn first, clipped to my rectangle, to erase anything I
+     * no longer cover.
+     */
+    final void drawInvalid() {
+        if (this != window) {
+            List<TWidget> underneath = new ArrayList<TWidget>();
+            for (TWidget widget = this; widget != window;) {
+                widget = widget.parent;
+                underneath.add(0, widget);
+            }
+            int left = getAbsoluteX();
+            int top = getAbsoluteY();
+            for (TWidget widget: underneath) {
+                widget.drawClipped(left, top, left + width, top + height);
+            }
+        }
+        getScreen().resetClipping();
+        drawChildren();
+    }
+
+    /**
+     * Draw only my own part of a screen rectangle, without my children.
+     *
+     * @param left absolute left column of the rectangle
+     * @param top absolute top row of the rectangle
+     * @param right absolute column just past the rectangle's right edge
+     * @param bottom absolute row just past the rectangle's bottom edge
+     */
+    private void drawClipped(final int left, final int top, final int right,
+        final int bottom) {
+
+        Screen screen = getScreen();
+        int absoluteX = getAbsoluteX();
+        int absoluteY = getAbsoluteY();
+        int rightEdge = absoluteX + width;
+        int bottomEdge = absoluteY + height;
+        if (this != window) {
+            // Same as drawChildren(): stay inside the window border.
+            rightEdge = Math.min(rightEdge,
+                window.getAbsoluteX() + window.getWidth() - 1);
+            bottomEdge = Math.min(bottomEdge,
+                window.getAbsoluteY() + window.getHeight() - 1);
+        }
+        screen.resetClipping();
+        screen.setOffsetX(absoluteX - window.getDrawingX());
+        screen.setOffsetY(absoluteY - window.getDrawingY());
+        screen.setClipLeft(Math.max(left, absoluteX) - absoluteX);
+        screen.setClipTop(Math.max(top, absoluteY) - absoluteY);
+        screen.setClipRight(Math.min(right, rightEdge) - absoluteX);
+        screen.setClipBottom(Math.min(bottom, bottomEdge) - absoluteY);
+        draw();
+    }
+
     // ------------------------------------------------------------------------
     // Constructors -----------------------------------------------------------
     // ------------------------------------------------------------------------
@@ -670,6 +887,7 @@ public abstract class TWidget implements Comparable<TWidget> {
         for (int i = 0; i < children.size(); i++) {
             children.get(i).tabOrder = i;
         }
+        invalidate();
     }
 
     /**
@@ -691,6 +909,7 @@ public abstract class TWidget implements Comparable<TWidget> {
             }
             child.active = true;
             activeChild = child;
+            invalidate();
         }
     }
 
@@ -720,6 +939,7 @@ public abstract class TWidget implements Comparable<TWidget> {
             assert (child.enabled);
             child.active = true;
             activeChild = child;
+            invalidate();
         }
     }
 
@@ -774,6 +994,7 @@ public abstract class TWidget implements Comparable<TWidget> {
         activeChild.active = false;
         children.get(tabOrder).active = true;
         activeChild = children.get(tabOrder);
+        invalidate();
     }
 
     /**
@@ -884,6 +1105,28 @@ public abstract class TWidget implements Comparable<TWidget> {
         }
     }
 
+    /**
+     * Method that subclasses can override to handle pasted text.  Widgets
+     * that edit text should insert it in one go.
+     *
+     * @param paste paste event
+     */
+    public void onPaste(final TPasteEvent paste) {
+        // Default: type the text in one keystroke at a time
+        String text = paste.getText();
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch == '\n') {
+                onKeypress(new TKeypressEvent(kbEnter));
+            } else if (ch == '\t') {
+                onKeypress(new TKeypressEvent(kbTab));
+            } else if (ch >= 0x20) {
+                onKeypress(new TKeypressEvent(false, 0, ch,
+                        false, false, false));
+            }
+        }
+    }
+
     /**
      * Method that subclasses can override to handle mouse button presses.
      *
@@ -953,8 +1196,13 @@ public abstract class TWidget implements Comparable<TWidget> {
     public void onResize(final TResizeEvent resize) {
         // Default: change my width/height.
         if (resize.getType() == TResizeEvent.Type.WIDGET) {
-            width = resize.getWidth();
-            height = resize.getHeight();
+            if ((width != resize.getWidth())
+                || (height != resize.getHeight())
+            ) {
+                width = resize.getWidth();
+                height = resize.getHeight();
+                invalidateParent();
+            }
         } else {
             // Let children see the screen resize
             for (TWidget widget: children) {
@@ -1003,7 +1251,7 @@ public abstract class TWidget implements Comparable<TWidget> {
      * Consume event.  Subclasses that want to intercept all events in one go
      * can override this method.
      *
-     * @param event keyboard, mouse, resize, command, or menu event
+     * @param event keyboard, paste, mouse, resize, command, or menu event
      */
     public void handleEvent(final TInputEvent event) {
         // System.err.printf("TWidget (%s) event: %s\n", this.getClass().getName(),
@@ -1015,8 +1263,11 @@ public abstract class TWidget implements Comparable<TWidget> {
             return;
         }
 
+
         if (event instanceof TKeypressEvent) {
             onKeypress((TKeypressEvent) event);
+        } else if (event instanceof TPasteEvent) {
+            onPaste((TPasteEvent) event);
         } else if (event instanceof TMouseEvent) {
 
             TMouseEvent mouse = (TMouseEvent) event;
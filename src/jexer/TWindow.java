@@ -28,8 +28,11 @@
  */
 package jexer;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 
+import jexer.backend.LogicalScreen;
 import jexer.backend.Screen;
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
@@ -38,6 +41,7 @@ import jexer.event.TCommandEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMenuEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.event.TResizeEvent;
 import jexer.menu.TMenu;
 import static jexer.TCommand.*;
@@ -102,7 +106,10 @@ public class TWindow extends TWidget {
      * @param title new window title
      */
     public final void setTitle(final String title) {
-        this.title = title;
+        if (!title.equals(this.title)) {
+            this.title = title;
+            invalidate();
+        }
     }
 
     // ------------------------------------------------------------------------
@@ -131,9 +138,99 @@ public class TWindow extends TWidget {
      */
     @Override
     public final Screen getScreen() {
+        if (drawingSurface) {
+            return surface;
+        }
         return application.getScreen();
     }
 
+    // ------------------------------------------------------------------------
+    // Offscreen surface ------------------------------------------------------
+    // ------------------------------------------------------------------------
+
+    /**
+     * The cells of this window as last drawn.  TApplication composites the
+     * surfaces of all windows onto the screen in Z order, so moving or
+     * raising a window does not need any widget to draw again.
+     */
+    private LogicalScreen surface = null;
+
+    /**
+     * If true, the window is drawing into its surface and getScreen()
+     * returns the surface.
+     */
+    private boolean drawingSurface = false;
+
+    /**
+     * Get the screen column that drawing is relative to.
+     *
+     * @return my X while drawing into the surface, otherwise 0
+     */
+    final int getDrawingX() {
+        if (drawingSurface) {
+            return getX();
+        }
+        return 0;
+    }
+
+    /**
+     * Get the screen row that drawing is relative to.
+     *
+     * @return my Y while drawing into the surface, otherwise 0
+     */
+    final int getDrawingY() {
+        if (drawingSurface) {
+            return getY();
+        }
+        return 0;
+    }
+
+    /**
+     * Bring the surface up to date.  Only the widgets that have been
+     * invalidated since the last time are drawn again, unless the window
+     * changed size.
+     *
+     * @param redrawAll if true, draw the entire window again
+     */
+    final void drawSurface(final boolean redrawAll) {
+        boolean all = redrawAll;
+        if ((surface == null)
+            || (surface.getWidth() != getWidth())
+            || (surface.getHeight() != getHeight())
+        ) {
+            surface = new LogicalScreen(getWidth(), getHeight());
+            all = true;
+        }
+
+        drawingSurface = true;
+        if (all) {
+            surface.reset();
+            drawChildren();
+        } else {
+            List<TWidget> widgets = new ArrayList<TWidget>();
+            getInvalidWidgets(widgets);
+            for (TWidget widget: widgets) {
+                widget.drawInvalid();
+            }
+        }
+        drawingSurface = false;
+    }
+
+    /**
+     * Copy the surface onto the screen at my position.
+     */
+    final void drawToScreen() {
+        Screen screen = application.getScreen();
+        screen.copyScreen(surface, getX(), getY());
+        if (!(this instanceof TDesktop)) {
+            // draw() puts down the shadow outside of the surface, so it has
+            // to be done here.
+            screen.resetClipping();
+            screen.drawBoxShadow(getX(), getY(), getX() + getWidth(),
+                getY() + getHeight());
+        }
+    }
+
     /**
      * Z order.  Lower number means more in-front.
      */
@@ -154,6 +251,10 @@ public class TWindow extends TWidget {
      * @param z the new Z value.  Lower number means more in-front.
      */
     public final void setZ(final int z) {
+        if ((this.z != z) && (application != null)) {
+            // The stacking order changed, composite the windows again.
+            application.widgetInvalidated();
+        }
         this.z = z;
     }
 
@@ -323,6 +424,7 @@ public class TWindow extends TWidget {
         setX(0);
         setY(1);
         maximized = true;
+        invalidate();
     }
 
     /**
@@ -338,6 +440,7 @@ public class TWindow extends TWidget {
         setX(restoreWindowX);
         setY(restoreWindowY);
         maximized = false;
+        invalidate();
     }
 
     // ------------------------------------------------------------------------
@@ -677,6 +780,32 @@ public class TWindow extends TWidget {
     // Event handlers ---------------------------------------------------------
     // ------------------------------------------------------------------------
 
+    /**
+     * See if the close or maximize button is drawn pressed in.
+     *
+     * @return true if mouse button 1 is down on the close or maximize
+     * button
+     */
+    private boolean isButtonPressed() {
+        return ((mouse != null)
+            && mouse.isMouse1()
+            && (mouseOnClose() || mouseOnMaximize()));
+    }
+
+    /**
+     * Remember the latest mouse event, and draw the window again if that
+     * changes whether its close or maximize button looks pressed.
+     *
+     * @param mouse the new mouse event
+     */
+    private void setMouse(final TMouseEvent mouse) {
+        boolean pressed = isButtonPressed();
+        this.mouse = mouse;
+        if (pressed != isButtonPressed()) {
+            invalidate();
+        }
+    }
+
     /**
      * Returns true if the mouse is currently on the close button.
      *
@@ -776,9 +905,12 @@ public class TWindow extends TWidget {
      */
     @Override
     public void onMouseDown(final TMouseEvent mouse) {
-        this.mouse = mouse;
+        setMouse(mouse);
 
-        inKeyboardResize = false;
+        if (inKeyboardResize) {
+            inKeyboardResize = false;
+            invalidate();
+        }
 
         if ((mouse.getAbsoluteY() == getY())
             && mouse.isMouse1()
@@ -787,8 +919,10 @@ public class TWindow extends TWidget {
             && !mouseOnClose()
             && !mouseOnMaximize()
         ) {
-            // Begin moving window
+            // Begin moving window.  Only the border changes color; the
+            // moves themselves just composite my surface somewhere else.
             inWindowMove = true;
+            invalidate();
             moveWindowMouseX = mouse.getAbsoluteX();
             moveWindowMouseY = mouse.getAbsoluteY();
             oldWindowX = getX();
@@ -801,6 +935,7 @@ public class TWindow extends TWidget {
         if (mouseOnResize()) {
             // Begin window resize
             inWindowResize = true;
+            invalidate();
             moveWindowMouseX = mouse.getAbsoluteX();
             moveWindowMouseY = mouse.getAbsoluteY();
             resizeWindowWidth = getWidth();
@@ -829,17 +964,19 @@ public class TWindow extends TWidget {
      */
     @Override
     public void onMouseUp(final TMouseEvent mouse) {
-        this.mouse = mouse;
+        setMouse(mouse);
 
         if ((inWindowMove) && (mouse.isMouse1())) {
             // Stop moving window
             inWindowMove = false;
+            invalidate();
             return;
         }
 
         if ((inWindowResize) && (mouse.isMouse1())) {
             // Stop resizing window
             inWindowResize = false;
+            invalidate();
             return;
         }
 
@@ -883,7 +1020,7 @@ public class TWindow extends TWidget {
      */
     @Override
     public void onMouseMotion(final TMouseEvent mouse) {
-        this.mouse = mouse;
+        setMouse(mouse);
 
         if (inWindowMove) {
             // Move window over
@@ -904,6 +1041,7 @@ public class TWindow extends TWidget {
             // Do not permit resizing below the status line
             if (mouse.getAbsoluteY() == application.getDesktopBottom()) {
                 inWindowResize = false;
+                invalidate();
                 return;
             }
 
@@ -944,6 +1082,10 @@ public class TWindow extends TWidget {
                 setHeight(maximumWindowHeight);
                 inWindowResize = false;
             }
+            if (!inWindowResize) {
+                // Hit a limit, put the border back
+                invalidate();
+            }
 
             // Pass a resize event to my children
             onResize(new TResizeEvent(TResizeEvent.Type.WIDGET,
@@ -973,6 +1115,7 @@ public class TWindow extends TWidget {
             // ESC or ENTER - Exit size/move
             if (keypress.equals(kbEsc) || keypress.equals(kbEnter)) {
                 inKeyboardResize = false;
+                invalidate();
             }
 
             if (keypress.equals(kbLeft)) {
@@ -1084,6 +1227,7 @@ public class TWindow extends TWidget {
             // Ctrl-F5 - size/move
             if (keypress.equals(kbCtrlF5)) {
                 inKeyboardResize = !inKeyboardResize;
+                invalidate();
             }
 
         } // if (!(this instanceof TDesktop))
@@ -1092,6 +1236,27 @@ public class TWindow extends TWidget {
         super.onKeypress(keypress);
     }
 
+    /**
+     * Handle pasted text.
+     *
+     * @param paste paste event
+     */
+    @Override
+    public void onPaste(final TPasteEvent paste) {
+        if (inKeyboardResize) {
+            // Pasted text is not size/move input
+            return;
+        }
+
+        // Give it to the active widget in one piece
+        TWidget widget = getActiveChild();
+        if (widget != this) {
+            widget.handleEvent(paste);
+            return;
+        }
+        super.onPaste(paste);
+    }
+
     /**
      * Handle posted command events.
      *
@@ -1125,6 +1290,7 @@ public class TWindow extends TWidget {
 
             if (command.equals(cmWindowMove)) {
                 inKeyboardResize = true;
+                invalidate();
                 return;
             }
 
@@ -1171,6 +1337,7 @@ public class TWindow extends TWidget {
 
             if (menu.getId() == TMenu.MID_WINDOW_MOVE) {
                 inKeyboardResize = true;
+                invalidate();
                 return;
             }
 
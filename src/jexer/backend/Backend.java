@@ -82,7 +82,9 @@ public interface Backend {
     public void setTitle(final String title);
 
     /**
-     * Set listener to a different Object.
+     * Set listener to a different Object.  On new input the backend calls
+     * onBackendInput() if the listener is a BackendListener, otherwise it
+     * calls notifyAll() on the listener.
      *
      * @param listener the new listening object that run() wakes up on new
      * input
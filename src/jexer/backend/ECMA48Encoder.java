@@ -0,0 +1,752 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.backend;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+
+/**
+ * ECMA48Encoder accumulates ECMA-48 / ANSI X3.64 escape sequences and UTF-8
+ * text in a reusable byte buffer.  Escape sequences are assembled from
+ * precomputed byte tables, so encoding a frame does not allocate once the
+ * buffer has grown to fit it.
+ */
+public final class ECMA48Encoder {
+
+    /**
+     * Decimal numbers below this value are looked up in DECIMAL.
+     */
+    private static final int DECIMAL_TABLE_SIZE = 1000;
+
+    /**
+     * ASCII digits for 0 through DECIMAL_TABLE_SIZE - 1.
+     */
+    private static final byte [][] DECIMAL = new byte[DECIMAL_TABLE_SIZE][];
+
+    /**
+     * SGR reset prefixes indexed by bold (1), reverse (2), blink (4), and
+     * underline (8).  E.g. "\033[0;1;7;".
+     */
+    private static final byte [][] SGR_RESET = new byte[16][];
+
+    /**
+     * T.416 RGB parameters for the bold colors, indexed by color value.
+     */
+    private static final byte [][] RGB_BOLD = ascii(new String [] {
+        "84;84;84", "252;84;84", "84;252;84", "252;252;84",
+        "84;84;252", "252;84;252", "84;252;252", "252;252;252",
+    });
+
+    /**
+     * T.416 RGB parameters for the normal colors, indexed by color value.
+     */
+    private static final byte [][] RGB_NORMAL = ascii(new String [] {
+        "0;0;0", "168;0;0", "0;168;0", "168;84;0",
+        "0;0;168", "168;0;168", "0;168;168", "168;168;168",
+    });
+
+    /**
+     * Control Sequence Introducer.
+     */
+    private static final byte [] CSI = ascii("\033[");
+
+    /**
+     * SGR parameter sequence to reset to white-on-black.
+     */
+    private static final byte [] NORMAL = ascii("\033[0;37;40m");
+
+    /**
+     * Erase the entire screen.
+     */
+    private static final byte [] CLEAR_ALL = ascii("\033[2J");
+
+    /**
+     * Erase from the cursor to the end of the line.
+     */
+    private static final byte [] CLEAR_LINE = ascii("\033[K");
+
+    /**
+     * Show the cursor.
+     */
+    private static final byte [] CURSOR_ON = ascii("\033[?25h");
+
+    /**
+     * Hide the cursor.
+     */
+    private static final byte [] CURSOR_OFF = ascii("\033[?25l");
+
+    /**
+     * Reset the scrolling region to the full screen.
+     */
+    private static final byte [] RESET_SCROLL_REGION = ascii("\033[r");
+
+    /**
+     * Begin synchronized update (DEC private mode 2026).
+     */
+    private static final byte [] BEGIN_SYNCHRONIZED_UPDATE =
+        ascii("\033[?2026h");
+
+    /**
+     * End synchronized update (DEC private mode 2026).
+     */
+    private static final byte [] END_SYNCHRONIZED_UPDATE =
+        ascii("\033[?2026l");
+
+    /**
+     * Start of a T.416 RGB foreground color.
+     */
+    private static final byte [] RGB_FORE = ascii("\033[38;2;");
+
+    /**
+     * Start of a T.416 RGB background color.
+     */
+    private static final byte [] RGB_BACK = ascii("\033[48;2;");
+
+    static {
+        for (int i = 0; i < DECIMAL_TABLE_SIZE; i++) {
+            DECIMAL[i] = ascii(Integer.toString(i));
+        }
+        for (int i = 0; i < SGR_RESET.length; i++) {
+            StringBuilder sb = new StringBuilder("\033[0;");
+            if ((i & 1) != 0) {
+                sb.append("1;");
+            }
+            if ((i & 2) != 0) {
+                sb.append("7;");
+            }
+            if ((i & 4) != 0) {
+                sb.append("5;");
+            }
+            if ((i & 8) != 0) {
+                sb.append("4;");
+            }
+            SGR_RESET[i] = ascii(sb.toString());
+        }
+    }
+
+    /**
+     * The encoded bytes.  position() is the number of bytes encoded since
+     * the last reset().
+     */
+    private ByteBuffer buffer;
+
+    /**
+     * Characters decoded from buffer by writeTo(Writer).
+     */
+    private CharBuffer charBuffer;
+
+    /**
+     * Decoder used by writeTo(Writer).
+     */
+    private CharsetDecoder decoder;
+
+    /**
+     * If true, follow each color change with T.416 RGB colors.
+     */
+    private boolean rgbColor = false;
+
+    /**
+     * Public constructor.
+     */
+    public ECMA48Encoder() {
+        buffer = ByteBuffer.allocate(4096);
+    }
+
+    /**
+     * Convert an ASCII string to bytes.
+     *
+     * @param str the string
+     * @return the bytes
+     */
+    private static byte [] ascii(final String str) {
+        byte [] bytes = new byte[str.length()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) str.charAt(i);
+        }
+        return bytes;
+    }
+
+    /**
+     * Convert ASCII strings to bytes.
+     *
+     * @param strs the strings
+     * @return the bytes of each string
+     */
+    private static byte [][] ascii(final String [] strs) {
+        byte [][] bytes = new byte[strs.length][];
+        for (int i = 0; i < strs.length; i++) {
+            bytes[i] = ascii(strs[i]);
+        }
+        return bytes;
+    }
+
+    /**
+     * Set whether color changes are followed by T.416 RGB colors.
+     *
+     * @param rgbColor if true, emit RGB colors too
+     */
+    public void setRgbColor(final boolean rgbColor) {
+        this.rgbColor = rgbColor;
+    }
+
+    /**
+     * Discard everything encoded so far.
+     */
+    public void reset() {
+        buffer.clear();
+    }
+
+    /**
+     * Get the number of bytes encoded since the last reset().
+     *
+     * @return the number of bytes
+     */
+    public int size() {
+        return buffer.position();
+    }
+
+    /**
+     * Make room for more bytes, doubling the buffer if needed.
+     *
+     * @param n the number of bytes about to be written
+     */
+    private void ensure(final int n) {
+        if (buffer.remaining() < n) {
+            int capacity = buffer.capacity() * 2;
+            while (capacity - buffer.position() < n) {
+                capacity *= 2;
+            }
+            ByteBuffer newBuffer = ByteBuffer.allocate(capacity);
+            buffer.flip();
+            newBuffer.put(buffer);
+            buffer = newBuffer;
+        }
+    }
+
+    /**
+     * Append raw bytes.
+     *
+     * @param bytes the bytes
+     */
+    private void put(final byte [] bytes) {
+        ensure(bytes.length);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Append one ASCII byte.
+     *
+     * @param ch the byte
+     */
+    private void put(final char ch) {
+        ensure(1);
+        buffer.put((byte) ch);
+    }
+
+    /**
+     * Append a non-negative decimal number.
+     *
+     * @param n the number
+     */
+    private void putDecimal(final int n) {
+        if (n < DECIMAL_TABLE_SIZE) {
+            put(DECIMAL[n]);
+            return;
+        }
+        putDecimal(n / 10);
+        put((char) ('0' + (n % 10)));
+    }
+
+    /**
+     * Append a character in UTF-8.  Unpaired surrogates are sent as '?'.
+     *
+     * @param ch the character
+     */
+    public void putChar(final char ch) {
+        ensure(3);
+        if (ch < 0x80) {
+            buffer.put((byte) ch);
+        } else if (ch < 0x800) {
+            buffer.put((byte) (0xC0 | (ch >> 6)));
+            buffer.put((byte) (0x80 | (ch & 0x3F)));
+        } else if (Character.isHighSurrogate(ch)
+            || Character.isLowSurrogate(ch)
+        ) {
+            buffer.put((byte) '?');
+        } else {
+            buffer.put((byte) (0xE0 | (ch >> 12)));
+            buffer.put((byte) (0x80 | ((ch >> 6) & 0x3F)));
+            buffer.put((byte) (0x80 | (ch & 0x3F)));
+        }
+    }
+
+    /**
+     * Append a string in UTF-8.
+     *
+     * @param str the string
+     */
+    public void putString(final String str) {
+        for (int i = 0; i < str.length(); i++) {
+            putChar(str.charAt(i));
+        }
+    }
+
+    /**
+     * Append a T.416 RGB parameter sequence for a single color change.
+     *
+     * @param bold if true, use the bold (foreground) palette
+     * @param color the color value, 0 through 7
+     * @param foreground if true, this is a foreground color
+     */
+    private void rgbColor(final boolean bold, final int color,
+        final boolean foreground) {
+
+        if (bold) {
+            // Bold implies foreground only
+            put(RGB_FORE);
+            put(RGB_BOLD[color]);
+        } else {
+            put(foreground ? RGB_FORE : RGB_BACK);
+            put(RGB_NORMAL[color]);
+        }
+        put('m');
+    }
+
+    /**
+     * Append a SGR parameter sequence for a single color change, e.g.
+     * "\033[42m".
+     *
+     * @param bold if true, set bold (only affects RGB colors)
+     * @param color the color value, 0 through 7
+     * @param foreground if true, this is a foreground color
+     */
+    public void color(final boolean bold, final int color,
+        final boolean foreground) {
+
+        put(CSI);
+        putDecimal(color + (foreground ? 30 : 40));
+        put('m');
+        if (rgbColor) {
+            rgbColor(bold, color, foreground);
+        }
+    }
+
+    /**
+     * Append a SGR parameter sequence for both foreground and background
+     * color change, e.g. "\033[31;42m".
+     *
+     * @param bold if true, set bold (only affects RGB colors)
+     * @param foreColor the foreground color value, 0 through 7
+     * @param backColor the background color value, 0 through 7
+     */
+    public void color(final boolean bold, final int foreColor,
+        final int backColor) {
+
+        put(CSI);
+        putDecimal(foreColor + 30);
+        put(';');
+        putDecimal(backColor + 40);
+        put('m');
+        if (rgbColor) {
+            rgbColor(bold, foreColor, true);
+            rgbColor(false, backColor, false);
+        }
+    }
+
+    /**
+     * Append a SGR parameter sequence for foreground, background, and
+     * several attributes.  This sequence first resets all attributes to
+     * default, then sets attributes as per the parameters, e.g.
+     * "\033[0;1;31;42m".
+     *
+     * @param foreColor the foreground color value, 0 through 7
+     * @param backColor the background color value, 0 through 7
+     * @param bold if true, set bold
+     * @param reverse if true, set reverse
+     * @param blink if true, set blink
+     * @param underline if true, set underline
+     */
+    public void color(final int foreColor, final int backColor,
+        final boolean bold, final boolean reverse, final boolean blink,
+        final boolean underline) {
+
+        int index = 0;
+        if (bold) {
+            index |= 1;
+        }
+        if (reverse) {
+            index |= 2;
+        }
+        if (blink) {
+            index |= 4;
+        }
+        if (underline) {
+            index |= 8;
+        }
+        put(SGR_RESET[index]);
+        putDecimal(foreColor + 30);
+        put(';');
+        putDecimal(backColor + 40);
+        put('m');
+        if (rgbColor) {
+            rgbColor(bold, foreColor, true);
+            rgbColor(false, backColor, false);
+        }
+    }
+
+    /**
+     * Append a SGR parameter sequence to reset to white-on-black.
+     */
+    public void normal() {
+        put(NORMAL);
+        if (rgbColor) {
+            rgbColor(false, 7, true);
+            rgbColor(false, 0, false);
+        }
+    }
+
+    /**
+     * Append a sequence to clear the entire screen.  Because some
+     * terminals use back-color-erase, set the color to white-on-black
+     * beforehand.
+     */
+    public void clearAll() {
+        put(NORMAL);
+        put(CLEAR_ALL);
+    }
+
+    /**
+     * Append a sequence to clear the line from the cursor (inclusive) to
+     * the end of the line.  Because some terminals use back-color-erase,
+     * set the color to white-on-black beforehand.
+     */
+    public void clearRemainingLine() {
+        put(NORMAL);
+        put(CLEAR_LINE);
+    }
+
+    /**
+     * Append a sequence to show or hide the cursor.
+     *
+     * @param on if true, show the cursor
+     */
+    public void cursor(final boolean on) {
+        put(on ? CURSOR_ON : CURSOR_OFF);
+    }
+
+    /**
+     * Append a sequence to move the cursor to (x, y).
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void gotoXY(final int x, final int y) {
+        put(CSI);
+        putDecimal(y + 1);
+        put(';');
+        putDecimal(x + 1);
+        put('H');
+    }
+
+    /**
+     * Get the number of bytes gotoXY() will emit.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     * @return the number of bytes
+     */
+    public static int gotoXYLength(final int x, final int y) {
+        return 4 + decimalLength(y + 1) + decimalLength(x + 1);
+    }
+
+    /**
+     * Get the number of bytes moveCursor() will emit.
+     *
+     * @param fromX column the cursor is on
+     * @param fromY row the cursor is on
+     * @param toX column to move to
+     * @param toY row to move to
+     * @return the number of bytes
+     */
+    public static int moveCursorLength(final int fromX, final int fromY,
+        final int toX, final int toY) {
+
+        int length = 0;
+        if (toY != fromY) {
+            length += csiLength(Math.abs(toY - fromY));
+        }
+        if (toX > fromX) {
+            length += csiLength(toX - fromX);
+        } else if (toX < fromX) {
+            length += Math.min(csiLength(fromX - toX),
+                1 + (toX == 0 ? 0 : csiLength(toX)));
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of bytes a CSI sequence with one numeric parameter
+     * will emit, where a parameter of 1 is left off.
+     *
+     * @param n the parameter
+     * @return the number of bytes
+     */
+    public static int csiLength(final int n) {
+        if (n == 1) {
+            return 3;
+        }
+        return 3 + decimalLength(n);
+    }
+
+    /**
+     * Get the number of digits in a non-negative decimal number.
+     *
+     * @param n the number
+     * @return the number of digits
+     */
+    private static int decimalLength(final int n) {
+        int length = 1;
+        for (int i = n; i >= 10; i /= 10) {
+            length++;
+        }
+        return length;
+    }
+
+    /**
+     * Get the number of bytes putChar() will emit.
+     *
+     * @param ch the character
+     * @return the number of bytes
+     */
+    public static int charLength(final char ch) {
+        if (ch < 0x80) {
+            return 1;
+        }
+        if (ch < 0x800) {
+            return 2;
+        }
+        if (Character.isHighSurrogate(ch)
+            || Character.isLowSurrogate(ch)
+        ) {
+            return 1;
+        }
+        return 3;
+    }
+
+    /**
+     * Append a CSI sequence with one numeric parameter, leaving the
+     * parameter off if it is 1.
+     *
+     * @param n the parameter
+     * @param function the final byte
+     */
+    private void csi(final int n, final char function) {
+        put(CSI);
+        if (n != 1) {
+            putDecimal(n);
+        }
+        put(function);
+    }
+
+    /**
+     * Append the shortest sequence of relative cursor movements (CUU, CUD,
+     * CUF, CUB, and CR) that gets from one position to another.  The
+     * cursor must not be beyond the scrolling region.
+     *
+     * @param fromX column the cursor is on
+     * @param fromY row the cursor is on
+     * @param toX column to move to
+     * @param toY row to move to
+     */
+    public void moveCursor(final int fromX, final int fromY,
+        final int toX, final int toY) {
+
+        if (toY > fromY) {
+            csi(toY - fromY, 'B');
+        } else if (toY < fromY) {
+            csi(fromY - toY, 'A');
+        }
+        if (toX > fromX) {
+            csi(toX - fromX, 'C');
+        } else if (toX < fromX) {
+            if (csiLength(fromX - toX)
+                <= 1 + (toX == 0 ? 0 : csiLength(toX))
+            ) {
+                csi(fromX - toX, 'D');
+            } else {
+                put('\r');
+                if (toX > 0) {
+                    csi(toX, 'C');
+                }
+            }
+        }
+    }
+
+    /**
+     * Append a sequence to make the terminal hold off on presenting
+     * anything until endSynchronizedUpdate().
+     */
+    public void beginSynchronizedUpdate() {
+        put(BEGIN_SYNCHRONIZED_UPDATE);
+    }
+
+    /**
+     * Append a sequence to make the terminal present everything since
+     * beginSynchronizedUpdate().
+     */
+    public void endSynchronizedUpdate() {
+        put(END_SYNCHRONIZED_UPDATE);
+    }
+
+    /**
+     * Append a sequence to repeat the last character printed (REP).
+     *
+     * @param n the number of additional copies
+     */
+    public void repeat(final int n) {
+        csi(n, 'b');
+    }
+
+    /**
+     * Append a sequence to erase characters starting at the cursor (ECH).
+     * The cursor does not move.
+     *
+     * @param n the number of characters
+     */
+    public void eraseChars(final int n) {
+        csi(n, 'X');
+    }
+
+    /**
+     * Append a sequence to set the scrolling region (DECSTBM).
+     *
+     * @param top the top row of the region.  0 is the top-most row.
+     * @param bottom the bottom row of the region, inclusive
+     */
+    public void scrollRegion(final int top, final int bottom) {
+        put(CSI);
+        putDecimal(top + 1);
+        put(';');
+        putDecimal(bottom + 1);
+        put('r');
+    }
+
+    /**
+     * Append a sequence to reset the scrolling region to the full screen.
+     */
+    public void resetScrollRegion() {
+        put(RESET_SCROLL_REGION);
+    }
+
+    /**
+     * Append a sequence to delete lines at the cursor (DL).
+     *
+     * @param n the number of lines
+     */
+    public void deleteLines(final int n) {
+        put(CSI);
+        putDecimal(n);
+        put('M');
+    }
+
+    /**
+     * Append a sequence to insert blank lines at the cursor (IL).
+     *
+     * @param n the number of lines
+     */
+    public void insertLines(final int n) {
+        put(CSI);
+        putDecimal(n);
+        put('L');
+    }
+
+    /**
+     * Write everything encoded since the last reset() to a stream in one
+     * write.
+     *
+     * @param output the stream
+     * @throws IOException if the stream throws it
+     */
+    public void writeTo(final OutputStream output) throws IOException {
+        output.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+    }
+
+    /**
+     * Write everything encoded since the last reset() to a Writer.  This is
+     * for terminals that were handed a Writer rather than an OutputStream;
+     * the bytes have to be decoded back to characters first.
+     *
+     * @param output the Writer
+     * @throws IOException if the Writer throws it
+     */
+    public void writeTo(final Writer output) throws IOException {
+        if (decoder == null) {
+            decoder = Charset.forName("UTF-8").newDecoder();
+            charBuffer = CharBuffer.allocate(buffer.capacity());
+        }
+        int end = buffer.position();
+        buffer.flip();
+        decoder.reset();
+        for (;;) {
+            charBuffer.clear();
+            CoderResult result = decoder.decode(buffer, charBuffer, true);
+            output.write(charBuffer.array(), charBuffer.arrayOffset(),
+                charBuffer.position());
+            if (!result.isOverflow()) {
+                break;
+            }
+        }
+        buffer.limit(buffer.capacity());
+        buffer.position(end);
+    }
+
+    /**
+     * Make human-readable description of this ECMA48Encoder.
+     *
+     * @return the encoded bytes as a string
+     */
+    @Override
+    public String toString() {
+        try {
+            return new String(buffer.array(), buffer.arrayOffset(),
+                buffer.position(), "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            // UTF-8 is always supported
+            return "";
+        }
+    }
+
+}
@@ -39,17 +39,20 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.io.Reader;
 import java.io.UnsupportedEncodingException;
-import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
 import java.util.List;
 import java.util.LinkedList;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
+import jexer.TKeypress;
 import jexer.bits.Cell;
-import jexer.bits.CellAttributes;
-import jexer.bits.Color;
+import jexer.bits.PackedCell;
+import jexer.bits.ThreadSupport;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
 import jexer.event.TMouseEvent;
+import jexer.event.TPasteEvent;
 import jexer.event.TResizeEvent;
 import static jexer.TKeypress.*;
 
@@ -71,6 +74,18 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     private static boolean doRgbColor = false;
 
+    /**
+     * Per-row hashes of the logical screen, used by flushScroll() to find
+     * rows that have moved.
+     */
+    private long [] logicalHash;
+
+    /**
+     * Per-row hashes of the physical screen, used by flushScroll() to find
+     * rows that have moved.
+     */
+    private long [] physicalHash;
+
     /**
      * The session information.
      */
@@ -93,18 +108,93 @@ public final class ECMA48Terminal extends LogicalScreen
     /**
      * If true, we want the reader thread to exit gracefully.
      */
-    private boolean stopReaderThread;
+    private volatile boolean stopReaderThread;
 
     /**
      * The reader thread.
      */
     private Thread readerThread;
 
+    /**
+     * The most parameters kept for one sequence.  Any beyond this are
+     * ignored.
+     */
+    private static final int MAX_PARAMS = 16;
+
     /**
      * Parameters being collected.  E.g. if the string is \033[1;3m, then
-     * params[0] will be 1 and params[1] will be 3.
+     * params[0] will be 1 and params[1] will be 3.  A parameter that was
+     * left out is 0.  For X10 mouse reports these are the three raw
+     * characters after "\033[M".
+     */
+    private int [] params = new int[MAX_PARAMS];
+
+    /**
+     * The number of parameters in params, including the one being
+     * collected.
+     */
+    private int paramsCount = 1;
+
+    /**
+     * Printable ASCII keystrokes, indexed by character.
+     */
+    private static final TKeypress [] ASCII_KEYS = new TKeypress[0x80];
+
+    /**
+     * Alt-keystrokes for printable ASCII (ESC followed by the character),
+     * indexed by character.
+     */
+    private static final TKeypress [] ALT_ASCII_KEYS = new TKeypress[0x80];
+
+    /**
+     * Control characters, indexed by character.  Entry 0x20 and up are
+     * the alt (ESC-prefixed) versions.
+     */
+    private static final TKeypress [] CONTROL_KEYS = new TKeypress[0x40];
+
+    /**
+     * Keys from CSI sequences ending in a letter (e.g. "\033[1;5A"),
+     * indexed by the final character and then by modifier bits.
      */
-    private ArrayList<String> params;
+    private static final TKeypress [][] CSI_LETTER_KEYS = new TKeypress[0x80][];
+
+    /**
+     * Keys from CSI sequences ending in '~' (e.g. "\033[5;2~"), indexed by
+     * the first parameter and then by modifier bits.
+     */
+    private static final TKeypress [][] CSI_TILDE_KEYS = new TKeypress[25][];
+
+    static {
+        for (char ch = 0x20; ch < 0x7F; ch++) {
+            ASCII_KEYS[ch] = new TKeypress(false, 0, ch, false, false, false);
+            ALT_ASCII_KEYS[ch] = new TKeypress(false, 0, ch, true, false,
+                ((ch >= 'A') && (ch <= 'Z')));
+        }
+        for (char ch = 0; ch < 0x20; ch++) {
+            CONTROL_KEYS[ch] = newControlKey(ch, false);
+            CONTROL_KEYS[ch + 0x20] = newControlKey(ch, true);
+        }
+        CSI_LETTER_KEYS['A'] = newModifiedKeys(kbUp);
+        CSI_LETTER_KEYS['B'] = newModifiedKeys(kbDown);
+        CSI_LETTER_KEYS['C'] = newModifiedKeys(kbRight);
+        CSI_LETTER_KEYS['D'] = newModifiedKeys(kbLeft);
+        CSI_LETTER_KEYS['H'] = newModifiedKeys(kbHome);
+        CSI_LETTER_KEYS['F'] = newModifiedKeys(kbEnd);
+        CSI_TILDE_KEYS[1] = newModifiedKeys(kbHome);
+        CSI_TILDE_KEYS[2] = newModifiedKeys(kbIns);
+        CSI_TILDE_KEYS[3] = newModifiedKeys(kbDel);
+        CSI_TILDE_KEYS[4] = newModifiedKeys(kbEnd);
+        CSI_TILDE_KEYS[5] = newModifiedKeys(kbPgUp);
+        CSI_TILDE_KEYS[6] = newModifiedKeys(kbPgDn);
+        CSI_TILDE_KEYS[15] = newModifiedKeys(kbF5);
+        CSI_TILDE_KEYS[17] = newModifiedKeys(kbF6);
+        CSI_TILDE_KEYS[18] = newModifiedKeys(kbF7);
+        CSI_TILDE_KEYS[19] = newModifiedKeys(kbF8);
+        CSI_TILDE_KEYS[20] = newModifiedKeys(kbF9);
+        CSI_TILDE_KEYS[21] = newModifiedKeys(kbF10);
+        CSI_TILDE_KEYS[23] = newModifiedKeys(kbF11);
+        CSI_TILDE_KEYS[24] = newModifiedKeys(kbF12);
+    }
 
     /**
      * States in the input parser.
@@ -117,6 +207,9 @@ public final class ECMA48Terminal extends LogicalScreen
         CSI_PARAM,
         MOUSE,
         MOUSE_SGR,
+        QUERY_REPLY,
+        MODE_REPLY,
+        PASTE,
     }
 
     /**
@@ -124,6 +217,41 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     private ParseState state;
 
+    /**
+     * The text pasted so far, while in PASTE.
+     */
+    private StringBuilder pasteBuffer = new StringBuilder();
+
+    /**
+     * The most characters held in pasteBuffer.  A longer paste is handed
+     * to the application in pieces this size, so that a client that never
+     * ends its paste can't use up all the memory.
+     */
+    private static final int PASTE_MAX = 1024 * 1024;
+
+    /**
+     * How long to wait in PASTE for more input, in millis.  If nothing
+     * comes in by then, the end of the paste was lost: deliver what we
+     * have and go back to reading keys.
+     */
+    private static final long PASTE_DELAY = 1000;
+
+    /**
+     * The time input last came in while in PASTE.
+     */
+    private long pasteTime;
+
+    /**
+     * If true, a paste timeout is scheduled and will look at pasteTime.
+     */
+    private boolean pasteTimeoutPending = false;
+
+    /**
+     * How long to wait after ESC for the rest of a sequence, in millis.
+     * If nothing else comes in by then, it is a bare escape key.
+     */
+    private static final long ESCAPE_DELAY = 100;
+
     /**
      * The time we entered ESCAPE.  If we get a bare escape without a code
      * following it, this is used to return that bare escape.
@@ -131,10 +259,24 @@ public final class ECMA48Terminal extends LogicalScreen
     private long escapeTime;
 
     /**
-     * The time we last checked the window size.  We try not to spawn stty
-     * more than once per second.
+     * Guards the input parser state, which both the reader thread and the
+     * escape timeout change.  This is not the lock on this, because
+     * TApplication holds that while it draws and flushes the screen.
+     */
+    private final Object parserLock = new Object();
+
+    /**
+     * The periodic window size check, run on the shared timer.  This is
+     * used when sessionInfo can report the window size without blocking.
      */
-    private long windowSizeTime;
+    private Future<?> windowSizeTask;
+
+    /**
+     * The thread that checks the window size when that means spawning
+     * stty, which must not block the shared timer.  We try not to spawn
+     * stty more than once per second.
+     */
+    private Thread windowSizeThread;
 
     /**
      * true if mouse1 was down.  Used to report mouse1 on the release event.
@@ -157,11 +299,55 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     private boolean cursorOn = true;
 
+    /**
+     * Column of the terminal's cursor while flushing, or -1 if it is not
+     * known.
+     */
+    private int flushCursorX = -1;
+
+    /**
+     * Row of the terminal's cursor while flushing.  Only meaningful when
+     * flushCursorX is not -1.
+     */
+    private int flushCursorY = -1;
+
+    /**
+     * If true, the terminal supports ECH (erase character).  Set from its
+     * reply to primary device attributes.
+     */
+    private volatile boolean hasEch = false;
+
+    /**
+     * If true, the terminal supports REP (repeat last character).  Set from
+     * its reply to primary device attributes.
+     */
+    private volatile boolean hasRep = false;
+
+    /**
+     * If true, the terminal supports synchronized update mode (DEC private
+     * mode 2026).  Set from its reply to DECRQM.
+     */
+    private volatile boolean hasSynchronizedUpdate = false;
+
+    /**
+     * If true, wrap each frame in begin/end synchronized update when the
+     * terminal supports it.  This can be turned off with the
+     * jexer.ECMA48.synchronizedUpdate property.
+     */
+    private boolean synchronizedUpdate = true;
+
+    /**
+     * Frames larger than this many bytes are split into several
+     * synchronized updates at row boundaries, so that a terminal with a
+     * bounded update buffer never has to give up partway through a row.
+     */
+    private static final int SYNCHRONIZED_UPDATE_SIZE = 32768;
+
     /**
      * Cache the last window size to figure out if a TResizeEvent needs to be
      * generated.
      */
-    private TResizeEvent windowResize = null;
+    private volatile TResizeEvent windowResize = null;
 
     /**
      * If true, then we changed System.in and need to change it back.
@@ -191,19 +377,16 @@ public final class ECMA48Terminal extends LogicalScreen
     private PrintWriter output;
 
     /**
-     * The listening object that run() wakes up on new input.
+     * The OutputStream underlying output, or null if this terminal was
+     * handed a PrintWriter.  Screen updates are written here directly as
+     * bytes.
      */
-    private Object listener;
+    private OutputStream outputStream;
 
     /**
-     * Set listener to a different Object.
-     *
-     * @param listener the new listening object that run() wakes up on new
-     * input
+     * The encoder that screen updates are rendered into.
      */
-    public void setListener(final Object listener) {
-        this.listener = listener;
-    }
+    private ECMA48Encoder encoder = new ECMA48Encoder();
 
     /**
      * Get the output writer.
@@ -314,7 +497,7 @@ public final class ECMA48Terminal extends LogicalScreen
         mouse2           = false;
         mouse3           = false;
         stopReaderThread = false;
-        this.listener    = listener;
+        setListener(listener);
 
         if (input == null) {
             // inputStream = System.in;
@@ -341,15 +524,17 @@ public final class ECMA48Terminal extends LogicalScreen
         }
 
         if (output == null) {
-            this.output = new PrintWriter(new OutputStreamWriter(System.out,
-                    "UTF-8"));
+            outputStream = System.out;
         } else {
-            this.output = new PrintWriter(new OutputStreamWriter(output,
-                    "UTF-8"));
+            outputStream = output;
         }
+        this.output = new PrintWriter(new OutputStreamWriter(outputStream,
+                "UTF-8"));
 
-        // Enable mouse reporting and metaSendsEscape
-        this.output.printf("%s%s", mouse(true), xtermMetaSendsEscape(true));
+        // Enable mouse reporting, metaSendsEscape, and bracketed paste
+        this.output.printf("%s%s%s%s%s", mouse(true),
+            xtermMetaSendsEscape(true), bracketedPaste(true),
+            deviceAttributes(), synchronizedUpdateQuery());
         this.output.flush();
 
         // Query the screen size
@@ -369,11 +554,18 @@ public final class ECMA48Terminal extends LogicalScreen
                 doRgbColor = false;
             }
         }
+        encoder.setRgbColor(doRgbColor);
+
+        // Permit turning off synchronized update if externally requested
+        if ("false".equals(System.getProperty(
+                "jexer.ECMA48.synchronizedUpdate"))) {
+            synchronizedUpdate = false;
+        }
 
         // Spin up the input reader
         eventQueue = new LinkedList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
+        readerThread = ThreadSupport.startDaemonThread(this);
+        startWindowSizeTask();
 
         // Clear the screen
         this.output.write(clearAll());
@@ -412,7 +604,7 @@ public final class ECMA48Terminal extends LogicalScreen
         mouse2           = false;
         mouse3           = false;
         stopReaderThread = false;
-        this.listener    = listener;
+        setListener(listener);
 
         inputStream = input;
         this.input = reader;
@@ -438,8 +630,10 @@ public final class ECMA48Terminal extends LogicalScreen
 
         this.output = writer;
 
-        // Enable mouse reporting and metaSendsEscape
-        this.output.printf("%s%s", mouse(true), xtermMetaSendsEscape(true));
+        // Enable mouse reporting, metaSendsEscape, and bracketed paste
+        this.output.printf("%s%s%s%s%s", mouse(true),
+            xtermMetaSendsEscape(true), bracketedPaste(true),
+            deviceAttributes(), synchronizedUpdateQuery());
         this.output.flush();
 
         // Query the screen size
@@ -459,11 +653,18 @@ public final class ECMA48Terminal extends LogicalScreen
                 doRgbColor = false;
             }
         }
+        encoder.setRgbColor(doRgbColor);
+
+        // Permit turning off synchronized update if externally requested
+        if ("false".equals(System.getProperty(
+                "jexer.ECMA48.synchronizedUpdate"))) {
+            synchronizedUpdate = false;
+        }
 
         // Spin up the input reader
         eventQueue = new LinkedList<TInputEvent>();
-        readerThread = new Thread(this);
-        readerThread.start();
+        readerThread = ThreadSupport.startDaemonThread(this);
+        startWindowSizeTask();
 
         // Clear the screen
         this.output.write(clearAll());
@@ -496,15 +697,42 @@ public final class ECMA48Terminal extends LogicalScreen
 
         // Tell the reader thread to stop looking at input
         stopReaderThread = true;
-        try {
-            readerThread.join();
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+        if (windowSizeTask != null) {
+            windowSizeTask.cancel(false);
+        }
+        if (windowSizeThread != null) {
+            windowSizeThread.interrupt();
         }
 
-        // Disable mouse reporting and show cursor
-        output.printf("%s%s%s", mouse(false), cursor(true), normal());
-        output.flush();
+        // Disable mouse reporting and show cursor.  This has to reach the
+        // terminal before the input side goes away.
+        output.print(mouse(false));
+        output.print(bracketedPaste(false));
+        encoder.reset();
+        cursor(true);
+        encoder.normal();
+        writeEncoder();
+
+        // The reader is blocked on read().  Closing the stream wakes it up
+        // for sockets; either way it will not queue any more events.  We
+        // can't close System.in, so instead ask the terminal for its device
+        // attributes: the reply is input, and the reader must consume it
+        // before the shell gets the tty back.
+        if (setRawMode) {
+            output.print(deviceAttributes());
+            output.flush();
+            try {
+                readerThread.join(1000);
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        } else {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                // SQUASH
+            }
+        }
 
         if (setRawMode) {
             sttyCooked();
@@ -514,7 +742,9 @@ public final class ECMA48Terminal extends LogicalScreen
             // Shut down the streams, this should wake up the reader thread
             // and make it exit.
             try {
-                if (input != null) {
+                // If the reader is still blocked on read(), it holds the
+                // Reader's lock and close() would wait for it forever.
+                if ((input != null) && !readerThread.isAlive()) {
                     input.close();
                     input = null;
                 }
@@ -536,138 +766,216 @@ public final class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * Perform a somewhat-optimal rendering of a line.
+     * Move the terminal's cursor to (x, y) using whichever is shortest:
+     * CUP, relative movement, or re-sending the cells in between when they
+     * already have the current attributes.
      *
+     * @param x column coordinate.  0 is the left-most column.
      * @param y row coordinate.  0 is the top-most row.
-     * @param sb StringBuilder to write escape sequences to
-     * @param lastAttr cell attributes from the last call to flushLine
-     */
-    private void flushLine(final int y, final StringBuilder sb,
-        CellAttributes lastAttr) {
+     * @param lastAttr packed cell attributes the terminal is currently
+     * using
+     */
+    private void moveCursor(final int x, final int y, final long lastAttr) {
+        int cost = ECMA48Encoder.gotoXYLength(x, y);
+        boolean relative = false;
+
+        if (flushCursorX >= 0) {
+            int moveCost = ECMA48Encoder.moveCursorLength(flushCursorX,
+                flushCursorY, x, y);
+            if (moveCost < cost) {
+                cost = moveCost;
+                relative = true;
+            }
 
-        int lastX = -1;
-        int textEnd = 0;
-        for (int x = 0; x < width; x++) {
-            Cell lCell = logical[x][y];
-            if (!lCell.isBlank()) {
-                textEnd = x;
+            if ((flushCursorY == y) && (flushCursorX < x)) {
+                // See if printing the cells in between is even cheaper
+                int row = y * width;
+                int resendCost = 0;
+                for (int i = flushCursorX; i < x; i++) {
+                    long cell = logical[row + i];
+                    if ((cell != physical[row + i])
+                        || !PackedCell.attrEquals(cell, lastAttr)
+                    ) {
+                        resendCost = cost;
+                        break;
+                    }
+                    resendCost += ECMA48Encoder.charLength(
+                        PackedCell.getChar(cell));
+                    if (resendCost >= cost) {
+                        break;
+                    }
+                }
+                if (resendCost < cost) {
+                    for (int i = flushCursorX; i < x; i++) {
+                        encoder.putChar(PackedCell.getChar(logical[row + i]));
+                    }
+                    flushCursorX = x;
+                    return;
+                }
             }
         }
+
+        if (relative) {
+            encoder.moveCursor(flushCursorX, flushCursorY, x, y);
+        } else {
+            encoder.gotoXY(x, y);
+        }
+        flushCursorX = x;
+        flushCursorY = y;
+    }
+
+    /**
+     * Perform a somewhat-optimal rendering of a line.  Only the columns
+     * in the row's dirty span are examined unless reallyCleared is set.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @param lastAttr packed cell attributes from the last call to
+     * flushLine, or PackedCell.NONE if the terminal's current attributes
+     * are unknown
+     * @return packed cell attributes of the last cell emitted
+     */
+    private long flushLine(final int y, long lastAttr) {
+
+        int row = y * width;
+        int textEnd = width - 1;
+        while ((textEnd >= 0) && (logical[row + textEnd] == PackedCell.BLANK)) {
+            textEnd--;
+        }
         // Push textEnd to first column beyond the text area
         textEnd++;
 
         // DEBUG
         // reallyCleared = true;
 
-        for (int x = 0; x < width; x++) {
-            Cell lCell = logical[x][y];
-            Cell pCell = physical[x][y];
+        int left = 0;
+        int right = width;
+        if (!reallyCleared) {
+            left = dirtyLeft[y];
+            right = dirtyRight[y];
+        }
+
+        for (int x = left; x < right; x++) {
+            long lCell = logical[row + x];
+            long pCell = physical[row + x];
 
-            if (!lCell.equals(pCell) || reallyCleared) {
+            if ((lCell != pCell) || reallyCleared) {
 
                 if (debugToStderr) {
                     System.err.printf("\n--\n");
                     System.err.printf(" Y: %d X: %d\n", y, x);
-                    System.err.printf("   lCell: %s\n", lCell);
-                    System.err.printf("   pCell: %s\n", pCell);
+                    System.err.printf("   lCell: %s\n",
+                        PackedCell.unpack(lCell, new Cell()));
+                    System.err.printf("   pCell: %s\n",
+                        PackedCell.unpack(pCell, new Cell()));
                     System.err.printf("    ====    \n");
                 }
 
-                if (lastAttr == null) {
-                    lastAttr = new CellAttributes();
-                    sb.append(normal());
+                if (lastAttr == PackedCell.NONE) {
+                    lastAttr = PackedCell.BLANK;
+                    encoder.normal();
                 }
 
                 // Place the cell
-                if ((lastX != (x - 1)) || (lastX == -1)) {
-                    // Advancing at least one cell, or the first gotoXY
-                    sb.append(gotoXY(x, y));
+                if ((x != flushCursorX) || (y != flushCursorY)) {
+                    moveCursor(x, y, lastAttr);
                 }
 
-                assert (lastAttr != null);
-
-                if ((x == textEnd) && (textEnd < width - 1)) {
-                    assert (lCell.isBlank());
+                if ((x >= textEnd) && (textEnd < width - 1)) {
+                    assert (lCell == PackedCell.BLANK);
 
                     for (int i = x; i < width; i++) {
-                        assert (logical[i][y].isBlank());
+                        assert (logical[row + i] == PackedCell.BLANK);
                         // Physical is always updated
-                        physical[i][y].reset();
+                        physical[row + i] = PackedCell.BLANK;
                     }
 
                     // Clear remaining line
-                    sb.append(clearRemainingLine());
-                    lastAttr.reset();
-                    return;
+                    encoder.clearRemainingLine();
+                    return PackedCell.BLANK;
                 }
 
+                boolean foreSame = (PackedCell.getForeValue(lCell)
+                    == PackedCell.getForeValue(lastAttr));
+                boolean backSame = (PackedCell.getBackValue(lCell)
+                    == PackedCell.getBackValue(lastAttr));
+                boolean boldSame = (PackedCell.isBold(lCell)
+                    == PackedCell.isBold(lastAttr));
+                boolean reverseSame = (PackedCell.isReverse(lCell)
+                    == PackedCell.isReverse(lastAttr));
+                boolean underlineSame = (PackedCell.isUnderline(lCell)
+                    == PackedCell.isUnderline(lastAttr));
+                boolean blinkSame = (PackedCell.isBlink(lCell)
+                    == PackedCell.isBlink(lastAttr));
+
                 // Now emit only the modified attributes
-                if ((lCell.getForeColor() != lastAttr.getForeColor())
-                    && (lCell.getBackColor() != lastAttr.getBackColor())
-                    && (lCell.isBold() == lastAttr.isBold())
-                    && (lCell.isReverse() == lastAttr.isReverse())
-                    && (lCell.isUnderline() == lastAttr.isUnderline())
-                    && (lCell.isBlink() == lastAttr.isBlink())
+                if (!foreSame
+                    && !backSame
+                    && boldSame
+                    && reverseSame
+                    && underlineSame
+                    && blinkSame
                 ) {
                     // Both colors changed, attributes the same
-                    sb.append(color(lCell.isBold(),
-                            lCell.getForeColor(), lCell.getBackColor()));
+                    encoder.color(PackedCell.isBold(lCell),
+                            PackedCell.getForeValue(lCell),
+                            PackedCell.getBackValue(lCell));
 
                     if (debugToStderr) {
                         System.err.printf("1 Change only fore/back colors\n");
                     }
-                } else if ((lCell.getForeColor() != lastAttr.getForeColor())
-                    && (lCell.getBackColor() != lastAttr.getBackColor())
-                    && (lCell.isBold() != lastAttr.isBold())
-                    && (lCell.isReverse() != lastAttr.isReverse())
-                    && (lCell.isUnderline() != lastAttr.isUnderline())
-                    && (lCell.isBlink() != lastAttr.isBlink())
+                } else if (!foreSame
+                    && !backSame
+                    && !boldSame
+                    && !reverseSame
+                    && !underlineSame
+                    && !blinkSame
                 ) {
                     // Everything is different
-                    sb.append(color(lCell.getForeColor(),
-                            lCell.getBackColor(),
-                            lCell.isBold(), lCell.isReverse(),
-                            lCell.isBlink(),
-                            lCell.isUnderline()));
+                    encoder.color(PackedCell.getForeValue(lCell),
+                            PackedCell.getBackValue(lCell),
+                            PackedCell.isBold(lCell),
+                            PackedCell.isReverse(lCell),
+                            PackedCell.isBlink(lCell),
+                            PackedCell.isUnderline(lCell));
 
                     if (debugToStderr) {
                         System.err.printf("2 Set all attributes\n");
                     }
-                } else if ((lCell.getForeColor() != lastAttr.getForeColor())
-                    && (lCell.getBackColor() == lastAttr.getBackColor())
-                    && (lCell.isBold() == lastAttr.isBold())
-                    && (lCell.isReverse() == lastAttr.isReverse())
-                    && (lCell.isUnderline() == lastAttr.isUnderline())
-                    && (lCell.isBlink() == lastAttr.isBlink())
+                } else if (!foreSame
+                    && backSame
+                    && boldSame
+                    && reverseSame
+                    && underlineSame
+                    && blinkSame
                 ) {
 
                     // Attributes same, foreColor different
-                    sb.append(color(lCell.isBold(),
-                            lCell.getForeColor(), true));
+                    encoder.color(PackedCell.isBold(lCell),
+                            PackedCell.getForeValue(lCell), true);
 
                     if (debugToStderr) {
                         System.err.printf("3 Change foreColor\n");
                     }
-                } else if ((lCell.getForeColor() == lastAttr.getForeColor())
-                    && (lCell.getBackColor() != lastAttr.getBackColor())
-                    && (lCell.isBold() == lastAttr.isBold())
-                    && (lCell.isReverse() == lastAttr.isReverse())
-                    && (lCell.isUnderline() == lastAttr.isUnderline())
-                    && (lCell.isBlink() == lastAttr.isBlink())
+                } else if (foreSame
+                    && !backSame
+                    && boldSame
+                    && reverseSame
+                    && underlineSame
+                    && blinkSame
                 ) {
                     // Attributes same, backColor different
-                    sb.append(color(lCell.isBold(),
-                            lCell.getBackColor(), false));
+                    encoder.color(PackedCell.isBold(lCell),
+                            PackedCell.getBackValue(lCell), false);
 
                     if (debugToStderr) {
                         System.err.printf("4 Change backColor\n");
                     }
-                } else if ((lCell.getForeColor() == lastAttr.getForeColor())
-                    && (lCell.getBackColor() == lastAttr.getBackColor())
-                    && (lCell.isBold() == lastAttr.isBold())
-                    && (lCell.isReverse() == lastAttr.isReverse())
-                    && (lCell.isUnderline() == lastAttr.isUnderline())
-                    && (lCell.isBlink() == lastAttr.isBlink())
+                } else if (foreSame
+                    && backSame
+                    && boldSame
+                    && reverseSame
+                    && underlineSame
+                    && blinkSame
                 ) {
 
                     // All attributes the same, just print the char
@@ -678,65 +986,332 @@ public final class ECMA48Terminal extends LogicalScreen
                     }
                 } else {
                     // Just reset everything again
-                    sb.append(color(lCell.getForeColor(),
-                            lCell.getBackColor(),
-                            lCell.isBold(),
-                            lCell.isReverse(),
-                            lCell.isBlink(),
-                            lCell.isUnderline()));
+                    encoder.color(PackedCell.getForeValue(lCell),
+                            PackedCell.getBackValue(lCell),
+                            PackedCell.isBold(lCell),
+                            PackedCell.isReverse(lCell),
+                            PackedCell.isBlink(lCell),
+                            PackedCell.isUnderline(lCell));
 
                     if (debugToStderr) {
                         System.err.printf("6 Change all attributes\n");
                     }
                 }
-                // Emit the character
-                sb.append(lCell.getChar());
+                // Emit the character, or a run of it
+                int run = 1;
+                if (hasRep || (hasEch && (lCell == PackedCell.BLANK))) {
+                    while ((x + run < width)
+                        && (logical[row + x + run] == lCell)
+                    ) {
+                        run++;
+                    }
+                }
+                char ch = PackedCell.getChar(lCell);
+                if ((run > 1)
+                    && hasRep
+                    && (ECMA48Encoder.csiLength(run - 1)
+                        < (run - 1) * ECMA48Encoder.charLength(ch))
+                ) {
+                    // REP the rest of the run
+                    encoder.putChar(ch);
+                    encoder.repeat(run - 1);
+                    flushCursorX = x + run;
+                } else if ((run > 1)
+                    && hasEch
+                    && (lCell == PackedCell.BLANK)
+                    && (2 * ECMA48Encoder.csiLength(run) < run)
+                ) {
+                    // ECH the run, which leaves the cursor where it is
+                    encoder.eraseChars(run);
+                    flushCursorX = x;
+                } else {
+                    run = 1;
+                    encoder.putChar(ch);
+                    flushCursorX = x + 1;
+                }
+                if (flushCursorX >= width) {
+                    // Some terminals wrap here, others do not
+                    flushCursorX = -1;
+                }
 
                 // Save the last rendered cell
-                lastX = x;
-                lastAttr.setTo(lCell);
+                lastAttr = lCell;
 
                 // Physical is always updated
-                physical[x][y].setTo(lCell);
+                for (int i = 0; i < run; i++) {
+                    physical[row + x + i] = lCell;
+                }
+                x += run - 1;
+
+            } // if ((lCell != pCell) || reallyCleared)
+
+        } // for (int x = left; x < right; x++)
+
+        return lastAttr;
+    }
+
+    /**
+     * Compute a hash of one row of a packed cell array.
+     *
+     * @param cells the logical or physical array
+     * @param y row coordinate
+     * @return hash of the row's cells
+     */
+    private long rowHash(final long [] cells, final int y) {
+        long hash = 17;
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+            hash = (hash * 31) + cells[row + x];
+        }
+        return hash;
+    }
+
+    /**
+     * See if a logical row is identical to a physical row.
+     *
+     * @param logicalY row in the logical screen
+     * @param physicalY row in the physical screen
+     * @return true if every cell matches
+     */
+    private boolean rowsEqual(final int logicalY, final int physicalY) {
+        if (logicalHash[logicalY] != physicalHash[physicalY]) {
+            return false;
+        }
+        int lRow = logicalY * width;
+        int pRow = physicalY * width;
+        for (int x = 0; x < width; x++) {
+            if (logical[lRow + x] != physical[pRow + x]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * See if a logical row is entirely blank.
+     *
+     * @param y row coordinate
+     * @return true if every cell is PackedCell.BLANK
+     */
+    private boolean isRowBlank(final int y) {
+        int row = y * width;
+        for (int x = 0; x < width; x++) {
+            if (logical[row + x] != PackedCell.BLANK) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Look for a block of rows that has moved vertically between the
+     * physical and logical screens, and if moving it is cheaper than
+     * redrawing it, move it on the terminal with a scrolling region and
+     * DL/IL.  The physical screen is shifted to match, and the rows in the
+     * scrolling region are marked dirty so that flushLine() fills in
+     * whatever the scroll did not fix.
+     *
+     * @return true if a scroll was emitted, in which case the terminal's
+     * current attributes are PackedCell.BLANK
+     */
+    private boolean flushScroll() {
+        int dirtyRows = 0;
+        for (int y = 0; y < height; y++) {
+            if (isRowDirty(y)) {
+                dirtyRows++;
+            }
+        }
+        if (dirtyRows < 3) {
+            // Not enough change to be worth a scroll.
+            return false;
+        }
+
+        if ((logicalHash == null) || (logicalHash.length != height)) {
+            logicalHash = new long[height];
+            physicalHash = new long[height];
+        }
+        boolean [] same = new boolean[height];
+        boolean [] blank = new boolean[height];
+        for (int y = 0; y < height; y++) {
+            logicalHash[y] = rowHash(logical, y);
+            physicalHash[y] = rowHash(physical, y);
+        }
+        for (int y = 0; y < height; y++) {
+            same[y] = rowsEqual(y, y);
+            blank[y] = isRowBlank(y);
+        }
+
+        int bestScore = 1;
+        int bestTop = -1;
+        int bestBottom = -1;
+        int bestShift = 0;
+
+        for (int n = 1; n < height - 1; n++) {
+            // Content moved up: logical row y came from physical row y + n.
+            int y = 0;
+            while (y < height - n) {
+                if (!rowsEqual(y, y + n)) {
+                    y++;
+                    continue;
+                }
+                int first = y;
+                int gain = 0;
+                while ((y < height - n) && rowsEqual(y, y + n)) {
+                    if (!same[y] && !blank[y]) {
+                        gain++;
+                    }
+                    y++;
+                }
+                // Rows first..y-1 are fixed, rows y..y+n-1 become blank.
+                int lost = 0;
+                for (int i = y; i < y + n; i++) {
+                    if (same[i] && !blank[i]) {
+                        lost++;
+                    }
+                }
+                if (gain - lost > bestScore) {
+                    bestScore = gain - lost;
+                    bestTop = first;
+                    bestBottom = y + n - 1;
+                    bestShift = n;
+                }
+            }
+
+            // Content moved down: logical row y came from physical row y - n.
+            y = n;
+            while (y < height) {
+                if (!rowsEqual(y, y - n)) {
+                    y++;
+                    continue;
+                }
+                int first = y;
+                int gain = 0;
+                while ((y < height) && rowsEqual(y, y - n)) {
+                    if (!same[y] && !blank[y]) {
+                        gain++;
+                    }
+                    y++;
+                }
+                // Rows first..y-1 are fixed, rows first-n..first-1 become
+                // blank.
+                int lost = 0;
+                for (int i = first - n; i < first; i++) {
+                    if (same[i] && !blank[i]) {
+                        lost++;
+                    }
+                }
+                if (gain - lost > bestScore) {
+                    bestScore = gain - lost;
+                    bestTop = first - n;
+                    bestBottom = y - 1;
+                    bestShift = -n;
+                }
+            }
+        }
+
+        if (bestShift == 0) {
+            return false;
+        }
 
-            } // if (!lCell.equals(pCell) || (reallyCleared == true))
+        // Blank lines are filled with the current attributes, so reset
+        // them first.
+        encoder.normal();
+        encoder.scrollRegion(bestTop, bestBottom);
+        encoder.gotoXY(0, bestTop);
+        int regionRows = bestBottom - bestTop + 1;
+        if (bestShift > 0) {
+            // DL: rows below the cursor move up, blanks enter at the bottom.
+            encoder.deleteLines(bestShift);
+            System.arraycopy(physical, (bestTop + bestShift) * width,
+                physical, bestTop * width, (regionRows - bestShift) * width);
+            Arrays.fill(physical, (bestBottom - bestShift + 1) * width,
+                (bestBottom + 1) * width, PackedCell.BLANK);
+        } else {
+            // IL: rows at the cursor move down, blanks enter at the top.
+            int shift = -bestShift;
+            encoder.insertLines(shift);
+            System.arraycopy(physical, bestTop * width,
+                physical, (bestTop + shift) * width,
+                (regionRows - shift) * width);
+            Arrays.fill(physical, bestTop * width,
+                (bestTop + shift) * width, PackedCell.BLANK);
+        }
+        // Restore the full-screen scrolling region.
+        encoder.resetScrollRegion();
 
-        } // for (int x = 0; x < width; x++)
+        for (int y = bestTop; y <= bestBottom; y++) {
+            dirtyLeft[y] = 0;
+            dirtyRight[y] = width;
+        }
+        return true;
     }
 
     /**
-     * Render the screen to a string that can be emitted to something that
-     * knows how to process ECMA-48/ANSI X3.64 escape sequences.
+     * Render the screen into the encoder as escape sequences that can be
+     * emitted to something that knows how to process ECMA-48/ANSI X3.64
+     * escape sequences.
      *
-     * @return escape sequences string that provides the updates to the
-     * physical screen
+     * @param sync if true, a synchronized update has been started, and
+     * should be ended and restarted between rows every
+     * SYNCHRONIZED_UPDATE_SIZE bytes
      */
-    private String flushString() {
+    private void flushEncoder(final boolean sync) {
         if (!dirty) {
             assert (!reallyCleared);
-            return "";
+            return;
         }
 
-        CellAttributes attr = null;
+        long attr = PackedCell.NONE;
+        flushCursorX = -1;
+        flushCursorY = -1;
 
-        StringBuilder sb = new StringBuilder();
         if (reallyCleared) {
-            attr = new CellAttributes();
-            sb.append(clearAll());
+            attr = PackedCell.BLANK;
+            encoder.clearAll();
+        } else if (flushScroll()) {
+            attr = PackedCell.BLANK;
         }
 
+        int chunkStart = encoder.size();
         for (int y = 0; y < height; y++) {
-            flushLine(y, sb, attr);
+            if (reallyCleared || isRowDirty(y)) {
+                attr = flushLine(y, attr);
+            }
+            if (sync
+                && (encoder.size() - chunkStart > SYNCHRONIZED_UPDATE_SIZE)
+            ) {
+                encoder.endSynchronizedUpdate();
+                encoder.beginSynchronizedUpdate();
+                chunkStart = encoder.size();
+            }
         }
 
+        clearDirtyRows();
         dirty = false;
         reallyCleared = false;
 
-        String result = sb.toString();
         if (debugToStderr) {
-            System.err.printf("flushString(): %s\n", result);
+            System.err.printf("flushEncoder(): %s\n", encoder);
+        }
+    }
+
+    /**
+     * Write the encoder's contents to the terminal in one write.
+     */
+    private void writeEncoder() {
+        try {
+            if (outputStream != null) {
+                // Anything already written to output must go out first.
+                output.flush();
+                encoder.writeTo(outputStream);
+                outputStream.flush();
+            } else {
+                encoder.writeTo(output);
+                output.flush();
+            }
+        } catch (IOException e) {
+            // SQUASH, as PrintWriter would
         }
-        return result;
     }
 
     /**
@@ -744,18 +1319,27 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     @Override
     public void flushPhysical() {
-        String result = flushString();
+        encoder.reset();
+        boolean sync = dirty && synchronizedUpdate && hasSynchronizedUpdate;
+        if (sync) {
+            encoder.beginSynchronizedUpdate();
+        }
+        flushEncoder(sync);
         if ((cursorVisible)
             && (cursorY <= height - 1)
             && (cursorX <= width - 1)
         ) {
-            result += cursor(true);
-            result += gotoXY(cursorX, cursorY);
+            cursor(true);
+            if ((cursorX != flushCursorX) || (cursorY != flushCursorY)) {
+                moveCursor(cursorX, cursorY, PackedCell.NONE);
+            }
         } else {
-            result += cursor(false);
+            cursor(false);
         }
-        output.write(result);
-        flush();
+        if (sync) {
+            encoder.endSynchronizedUpdate();
+        }
+        writeEncoder();
     }
 
     /**
@@ -773,9 +1357,78 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     private void resetParser() {
         state = ParseState.GROUND;
-        params = new ArrayList<String>();
-        params.clear();
-        params.add("");
+        params[0] = 0;
+        paramsCount = 1;
+    }
+
+    /**
+     * Add a digit to the parameter being collected.
+     *
+     * @param ch '0' through '9'
+     */
+    private void paramDigit(final char ch) {
+        int i = paramsCount - 1;
+        if (params[i] < 100000) {
+            params[i] = (params[i] * 10) + (ch - '0');
+        }
+    }
+
+    /**
+     * Start collecting the next parameter.
+     */
+    private void paramNext() {
+        if (paramsCount < MAX_PARAMS) {
+            params[paramsCount] = 0;
+            paramsCount++;
+        }
+    }
+
+    /**
+     * Build the eight modifier combinations of a key.
+     *
+     * @param key the unmodified key
+     * @return the keys, indexed by shift (1), alt (2), and ctrl (4)
+     */
+    private static TKeypress [] newModifiedKeys(final TKeypress key) {
+        TKeypress [] keys = new TKeypress[8];
+        for (int i = 0; i < 8; i++) {
+            keys[i] = newKey(key, ((i & 2) != 0), ((i & 4) != 0),
+                ((i & 1) != 0));
+        }
+        return keys;
+    }
+
+    /**
+     * Build a key with different modifiers.
+     *
+     * @param key the key
+     * @param alt if true, set alt on the TKeypress
+     * @param ctrl if true, set ctrl on the TKeypress
+     * @param shift if true, set shift on the TKeypress
+     * @return the new key
+     */
+    private static TKeypress newKey(final TKeypress key, final boolean alt,
+        final boolean ctrl, final boolean shift) {
+
+        return new TKeypress(key.isFnKey(), key.getKeyCode(), key.getChar(),
+            alt, ctrl, shift);
+    }
+
+    /**
+     * Get a key from one of the CSI tables, with the modifiers from the
+     * second parameter applied.
+     *
+     * @param keys the modifier combinations of the key, or null
+     * @return the key, or null if keys is null
+     */
+    private TKeypress csiModifiedKey(final TKeypress [] keys) {
+        if (keys == null) {
+            return null;
+        }
+        if (paramsCount > 1) {
+            return keys[csiModifiers(params[1])];
+        }
+        return keys[0];
     }
 
     /**
@@ -789,26 +1442,38 @@ public final class ECMA48Terminal extends LogicalScreen
      * fnKey == ESC)
      */
     private TKeypressEvent controlChar(final char ch, final boolean alt) {
-        // System.err.printf("controlChar: %02x\n", ch);
+        return new TKeypressEvent(CONTROL_KEYS[alt ? ch + 0x20 : ch]);
+    }
 
+    /**
+     * Build the key for a control character or one of the special ones
+     * (ENTER, TAB, etc.).
+     *
+     * @param ch Unicode code point, 0x00 through 0x1F
+     * @param alt if true, set alt on the TKeypress
+     * @return the key, either a control character (e.g. isKey == false, ch
+     * == 'A', ctrl == true), or a special key (e.g. isKey == true, fnKey ==
+     * ESC)
+     */
+    private static TKeypress newControlKey(final char ch, final boolean alt) {
         switch (ch) {
         case 0x0D:
             // Carriage return --> ENTER
-            return new TKeypressEvent(kbEnter, alt, false, false);
+            return newKey(kbEnter, alt, false, false);
         case 0x0A:
             // Linefeed --> ENTER
-            return new TKeypressEvent(kbEnter, alt, false, false);
+            return newKey(kbEnter, alt, false, false);
         case 0x1B:
             // ESC
-            return new TKeypressEvent(kbEsc, alt, false, false);
+            return newKey(kbEsc, alt, false, false);
         case '\t':
             // TAB
-            return new TKeypressEvent(kbTab, alt, false, false);
+            return newKey(kbTab, alt, false, false);
         default:
             // Make all other control characters come back as the alphabetic
             // character with the ctrl field set.  So SOH would be 'A' +
             // ctrl.
-            return new TKeypressEvent(false, 0, (char)(ch + 0x40),
+            return new TKeypress(false, 0, (char)(ch + 0x40),
                 alt, true, false);
         }
     }
@@ -816,55 +1481,52 @@ public final class ECMA48Terminal extends LogicalScreen
     /**
      * Produce special key from CSI Pn ; Pm ; ... ~
      *
-     * @return one KEYPRESS event representing a special key
+     * @return one KEYPRESS event representing a special key, or null if the
+     * key is unknown
      */
     private TInputEvent csiFnKey() {
-        int key = 0;
-        if (params.size() > 0) {
-            key = Integer.parseInt(params.get(0));
-        }
-        boolean alt = false;
-        boolean ctrl = false;
-        boolean shift = false;
-        if (params.size() > 1) {
-            shift = csiIsShift(params.get(1));
-            alt = csiIsAlt(params.get(1));
-            ctrl = csiIsCtrl(params.get(1));
+        int key = params[0];
+        if (key >= CSI_TILDE_KEYS.length) {
+            // Unknown
+            return null;
         }
-
-        switch (key) {
-        case 1:
-            return new TKeypressEvent(kbHome, alt, ctrl, shift);
-        case 2:
-            return new TKeypressEvent(kbIns, alt, ctrl, shift);
-        case 3:
-            return new TKeypressEvent(kbDel, alt, ctrl, shift);
-        case 4:
-            return new TKeypressEvent(kbEnd, alt, ctrl, shift);
-        case 5:
-            return new TKeypressEvent(kbPgUp, alt, ctrl, shift);
-        case 6:
-            return new TKeypressEvent(kbPgDn, alt, ctrl, shift);
-        case 15:
-            return new TKeypressEvent(kbF5, alt, ctrl, shift);
-        case 17:
-            return new TKeypressEvent(kbF6, alt, ctrl, shift);
-        case 18:
-            return new TKeypressEvent(kbF7, alt, ctrl, shift);
-        case 19:
-            return new TKeypressEvent(kbF8, alt, ctrl, shift);
-        case 20:
-            return new TKeypressEvent(kbF9, alt, ctrl, shift);
-        case 21:
-            return new TKeypressEvent(kbF10, alt, ctrl, shift);
-        case 23:
-            return new TKeypressEvent(kbF11, alt, ctrl, shift);
-        case 24:
-            return new TKeypressEvent(kbF12, alt, ctrl, shift);
-        default:
+        TKeypress keypress = csiModifiedKey(CSI_TILDE_KEYS[key]);
+        if (keypress == null) {
             // Unknown
             return null;
         }
+        return new TKeypressEvent(keypress);
+    }
+
+    /**
+     * Decide which optional control functions the terminal supports from
+     * its reply to primary device attributes, e.g. "\033[?64;1;2;6;22c".
+     * The first parameter is the conformance level: 62 and up (VT220 and
+     * later) have ECH.  Real VTs never had REP, but xterm and VTE do and
+     * report 64 and up (VT420 and later), so that is used for REP.
+     */
+    private void parseDA() {
+        int level = params[0];
+        if (level >= 62) {
+            hasEch = true;
+        }
+        if (level >= 64) {
+            hasRep = true;
+        }
+    }
+
+    /**
+     * Handle the terminal's reply to DECRQM, e.g. "\033[?2026;2$y".  A
+     * value of 0 means the mode is not recognized; anything else means
+     * the terminal knows the mode.
+     */
+    private void parseDECRPM() {
+        if (paramsCount < 2) {
+            return;
+        }
+        if ((params[0] == 2026) && (params[1] != 0)) {
+            hasSynchronizedUpdate = true;
+        }
     }
 
     /**
@@ -875,9 +1537,9 @@ public final class ECMA48Terminal extends LogicalScreen
      * @return a MOUSE_MOTION, MOUSE_UP, or MOUSE_DOWN event
      */
     private TInputEvent parseMouse() {
-        int buttons = params.get(0).charAt(0) - 32;
-        int x = params.get(0).charAt(1) - 32 - 1;
-        int y = params.get(0).charAt(2) - 32 - 1;
+        int buttons = params[0] - 32;
+        int x = params[1] - 32 - 1;
+        int y = params[2] - 32 - 1;
 
         // Clamp X and Y to the physical screen coordinates.
         if (x >= windowResize.getWidth()) {
@@ -993,13 +1655,13 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     private TInputEvent parseMouseSGR(final boolean release) {
         // SGR extended coordinates - mode 1006
-        if (params.size() < 3) {
+        if (paramsCount < 3) {
             // Invalid position, bail out.
             return null;
         }
-        int buttons = Integer.parseInt(params.get(0));
-        int x = Integer.parseInt(params.get(1)) - 1;
-        int y = Integer.parseInt(params.get(2)) - 1;
+        int buttons = params[0];
+        int x = params[1] - 1;
+        int y = params[2] - 1;
 
         // Clamp X and Y to the physical screen coordinates.
         if (x >= windowResize.getWidth()) {
@@ -1099,85 +1761,223 @@ public final class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * Return any events in the IO queue due to timeout.
+     * Hand events over to the backend thread.
      *
-     * @param queue list to append new events to
+     * @param events the new events, cleared on return
      */
-    private void getIdleEvents(final List<TInputEvent> queue) {
-        Date now = new Date();
-
-        // Check for new window size
-        long windowSizeDelay = now.getTime() - windowSizeTime;
-        if (windowSizeDelay > 1000) {
-            sessionInfo.queryWindowSize();
-            int newWidth = sessionInfo.getWindowWidth();
-            int newHeight = sessionInfo.getWindowHeight();
-            if ((newWidth != windowResize.getWidth())
-                || (newHeight != windowResize.getHeight())
-            ) {
-                TResizeEvent event = new TResizeEvent(TResizeEvent.Type.SCREEN,
-                    newWidth, newHeight);
-                windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
-                    newWidth, newHeight);
-                queue.add(event);
+    private void queueEvents(final List<TInputEvent> events) {
+        if (events.size() > 0) {
+            synchronized (eventQueue) {
+                eventQueue.addAll(events);
             }
-            windowSizeTime = now.getTime();
+            events.clear();
+            notifyListener();
         }
+    }
 
-        // ESCDELAY type timeout
-        if (state == ParseState.ESCAPE) {
-            long escDelay = now.getTime() - escapeTime;
-            if (escDelay > 100) {
-                // After 0.1 seconds, assume a true escape character
-                queue.add(controlChar((char)0x1B, false));
-                resetParser();
-            }
+    /**
+     * Check the window size once per second, and queue a TResizeEvent when
+     * it changes.  A TTY has to spawn stty to find out, so it gets its own
+     * thread; everything else uses the shared timer.
+     */
+    private void startWindowSizeTask() {
+        if (sessionInfo instanceof TTYSessionInfo) {
+            windowSizeThread = ThreadSupport.startDaemonThread(
+                new Runnable() {
+                    public void run() {
+                        while (!stopReaderThread) {
+                            try {
+                                Thread.sleep(1000);
+                            } catch (InterruptedException e) {
+                                // closeTerminal() is done with us
+                                return;
+                            }
+                            checkWindowSize();
+                        }
+                    }
+                });
+            return;
         }
+        windowSizeTask = ThreadSupport.getScheduler().scheduleWithFixedDelay(
+            new Runnable() {
+                public void run() {
+                    checkWindowSize();
+                }
+            }, 1000, 1000, TimeUnit.MILLISECONDS);
     }
 
     /**
-     * Returns true if the CSI parameter for a keyboard command means that
-     * shift was down.
+     * Ask sessionInfo for the window size, and queue a TResizeEvent if it
+     * changed.
      */
-    private boolean csiIsShift(final String x) {
-        if ((x.equals("2"))
-            || (x.equals("4"))
-            || (x.equals("6"))
-            || (x.equals("8"))
+    private void checkWindowSize() {
+        sessionInfo.queryWindowSize();
+        int newWidth = sessionInfo.getWindowWidth();
+        int newHeight = sessionInfo.getWindowHeight();
+        if ((newWidth != windowResize.getWidth())
+            || (newHeight != windowResize.getHeight())
         ) {
-            return true;
+            TResizeEvent event = new TResizeEvent(TResizeEvent.Type.SCREEN,
+                newWidth, newHeight);
+            windowResize = new TResizeEvent(TResizeEvent.Type.SCREEN,
+                newWidth, newHeight);
+            List<TInputEvent> events = new LinkedList<TInputEvent>();
+            events.add(event);
+            queueEvents(events);
         }
-        return false;
     }
 
     /**
-     * Returns true if the CSI parameter for a keyboard command means that
-     * alt was down.
+     * Arrange for a bare escape to be reported if nothing follows it.  This
+     * is called when input stops right after an ESC.
+     */
+    private void scheduleEscapeTimeout() {
+        final long time = escapeTime;
+        ThreadSupport.getScheduler().schedule(new Runnable() {
+            public void run() {
+                List<TInputEvent> events = new LinkedList<TInputEvent>();
+                synchronized (parserLock) {
+                    // ESCDELAY type timeout: after ESCAPE_DELAY with no more
+                    // input, assume a true escape character.
+                    if ((state == ParseState.ESCAPE) && (escapeTime == time)) {
+                        events.add(controlChar((char)0x1B, false));
+                        resetParser();
+                    }
+                }
+                queueEvents(events);
+            }
+        }, ESCAPE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Arrange for a bracketed paste to be ended if no more input comes in.
+     * This is called when input stops in the middle of a paste.  Only one
+     * timeout is pending at a time; if input came in meanwhile, it checks
+     * again later.
+     *
+     * @param delay millis until the check
+     */
+    private void schedulePasteTimeout(final long delay) {
+        pasteTimeoutPending = true;
+        ThreadSupport.getScheduler().schedule(new Runnable() {
+            public void run() {
+                List<TInputEvent> events = new LinkedList<TInputEvent>();
+                synchronized (parserLock) {
+                    pasteTimeoutPending = false;
+                    if (state == ParseState.PASTE) {
+                        long idle = System.currentTimeMillis() - pasteTime;
+                        if (idle >= PASTE_DELAY) {
+                            endPaste(events);
+                        } else {
+                            schedulePasteTimeout(PASTE_DELAY - idle);
+                        }
+                    }
+                }
+                queueEvents(events);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Give up on a bracketed paste whose end never came: deliver the text
+     * so far, and go back to GROUND.
+     *
+     * @param events list to append new events to
      */
-    private boolean csiIsAlt(final String x) {
-        if ((x.equals("3"))
-            || (x.equals("4"))
-            || (x.equals("7"))
-            || (x.equals("8"))
-        ) {
-            return true;
+    private void endPaste(final List<TInputEvent> events) {
+        int n = pasteMarkerStart();
+        if (n > 0) {
+            events.add(parsePaste(n));
+        }
+        pasteBuffer.setLength(0);
+        resetParser();
+    }
+
+    /**
+     * Find where pasteBuffer ends in what could be the start of "\033[201~"
+     * and the rest of it has not come in yet.
+     *
+     * @return the index of that partial end marker, or the length of
+     * pasteBuffer if there isn't one
+     */
+    private int pasteMarkerStart() {
+        int n = pasteBuffer.length();
+        for (int i = Math.max(0, n - 5); i < n; i++) {
+            if (pasteBuffer.charAt(i) == 0x1B) {
+                boolean prefix = true;
+                for (int j = i + 1; j < n; j++) {
+                    if (pasteBuffer.charAt(j) != "\033[201~".charAt(j - i)) {
+                        prefix = false;
+                        break;
+                    }
+                }
+                if (prefix) {
+                    return i;
+                }
+            }
+        }
+        return n;
+    }
+
+    /**
+     * See if pasteBuffer ends with the end of bracketed paste, "\033[201~".
+     *
+     * @return true if the paste is complete
+     */
+    private boolean pasteEnded() {
+        int n = pasteBuffer.length();
+        return ((n >= 6)
+            && (pasteBuffer.charAt(n - 6) == 0x1B)
+            && (pasteBuffer.charAt(n - 5) == '[')
+            && (pasteBuffer.charAt(n - 4) == '2')
+            && (pasteBuffer.charAt(n - 3) == '0')
+            && (pasteBuffer.charAt(n - 2) == '1'));
+    }
+
+    /**
+     * Produce one paste event from the start of pasteBuffer, and remove
+     * that text from pasteBuffer.  Terminals send line breaks as CR; the
+     * event uses '\n'.
+     *
+     * @param n the number of characters to take from pasteBuffer
+     * @return the paste event
+     */
+    private TInputEvent parsePaste(final int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            char ch = pasteBuffer.charAt(i);
+            if (ch == '\r') {
+                if ((i + 1 < n) && (pasteBuffer.charAt(i + 1) == '\n')) {
+                    i++;
+                }
+                ch = '\n';
+            }
+            sb.append(ch);
+        }
+        String rest = pasteBuffer.substring(n);
+        if (pasteBuffer.capacity() > 65536) {
+            // Don't hang on to the memory of a huge paste
+            pasteBuffer = new StringBuilder(rest);
+        } else {
+            pasteBuffer.setLength(0);
+            pasteBuffer.append(rest);
         }
-        return false;
+        return new TPasteEvent(sb.toString());
     }
 
     /**
-     * Returns true if the CSI parameter for a keyboard command means that
-     * ctrl was down.
+     * Decode the modifier parameter of a CSI keyboard sequence, e.g. the 5
+     * in "\033[1;5A".  xterm sends 1 plus a bitmask of shift (1), alt (2),
+     * and ctrl (4); anything outside 2 through 8 means no modifiers.
+     *
+     * @param param the parameter value
+     * @return the modifier bits, an index into the CSI key tables
      */
-    private boolean csiIsCtrl(final String x) {
-        if ((x.equals("5"))
-            || (x.equals("6"))
-            || (x.equals("7"))
-            || (x.equals("8"))
-        ) {
-            return true;
+    private static int csiModifiers(final int param) {
+        if ((param >= 2) && (param <= 8)) {
+            return param - 1;
         }
-        return false;
+        return 0;
     }
 
     /**
@@ -1190,21 +1990,16 @@ public final class ECMA48Terminal extends LogicalScreen
     private void processChar(final List<TInputEvent> events, final char ch) {
 
         // ESCDELAY type timeout
-        Date now = new Date();
         if (state == ParseState.ESCAPE) {
-            long escDelay = now.getTime() - escapeTime;
-            if (escDelay > 250) {
-                // After 0.25 seconds, assume a true escape character
+            long escDelay = System.currentTimeMillis() - escapeTime;
+            if (escDelay >= ESCAPE_DELAY) {
+                // Same as scheduleEscapeTimeout(): by now it is a true
+                // escape character
                 events.add(controlChar((char)0x1B, false));
                 resetParser();
             }
         }
 
-        // TKeypress fields
-        boolean ctrl = false;
-        boolean alt = false;
-        boolean shift = false;
-
         // System.err.printf("state: %s ch %c\r\n", state, ch);
 
         switch (state) {
@@ -1212,7 +2007,7 @@ public final class ECMA48Terminal extends LogicalScreen
 
             if (ch == 0x1B) {
                 state = ParseState.ESCAPE;
-                escapeTime = now.getTime();
+                escapeTime = System.currentTimeMillis();
                 return;
             }
 
@@ -1223,15 +2018,15 @@ public final class ECMA48Terminal extends LogicalScreen
                 return;
             }
 
-            if (ch >= 0x20) {
-                // Normal character
+            // Normal character
+            if (ch < 0x7F) {
+                events.add(new TKeypressEvent(ASCII_KEYS[ch]));
+            } else {
                 events.add(new TKeypressEvent(false, 0, ch,
                         false, false, false));
-                resetParser();
-                return;
             }
-
-            break;
+            resetParser();
+            return;
 
         case ESCAPE:
             if (ch <= 0x1F) {
@@ -1254,11 +2049,12 @@ public final class ECMA48Terminal extends LogicalScreen
             }
 
             // Everything else is assumed to be Alt-keystroke
-            if ((ch >= 'A') && (ch <= 'Z')) {
-                shift = true;
+            if (ch < 0x7F) {
+                events.add(new TKeypressEvent(ALT_ASCII_KEYS[ch]));
+            } else {
+                events.add(new TKeypressEvent(false, 0, ch,
+                        true, false, false));
             }
-            alt = true;
-            events.add(new TKeypressEvent(false, 0, ch, alt, ctrl, shift));
             resetParser();
             return;
 
@@ -1292,14 +2088,13 @@ public final class ECMA48Terminal extends LogicalScreen
         case CSI_ENTRY:
             // Numbers - parameter values
             if ((ch >= '0') && (ch <= '9')) {
-                params.set(params.size() - 1,
-                    params.get(params.size() - 1) + ch);
+                paramDigit(ch);
                 state = ParseState.CSI_PARAM;
                 return;
             }
             // Parameter separator
             if (ch == ';') {
-                params.add("");
+                paramNext();
                 return;
             }
 
@@ -1307,32 +2102,17 @@ public final class ECMA48Terminal extends LogicalScreen
                 switch (ch) {
                 case 'A':
                     // Up
-                    events.add(new TKeypressEvent(kbUp, alt, ctrl, shift));
-                    resetParser();
-                    return;
                 case 'B':
                     // Down
-                    events.add(new TKeypressEvent(kbDown, alt, ctrl, shift));
-                    resetParser();
-                    return;
                 case 'C':
                     // Right
-                    events.add(new TKeypressEvent(kbRight, alt, ctrl, shift));
-                    resetParser();
-                    return;
                 case 'D':
                     // Left
-                    events.add(new TKeypressEvent(kbLeft, alt, ctrl, shift));
-                    resetParser();
-                    return;
                 case 'H':
                     // Home
-                    events.add(new TKeypressEvent(kbHome));
-                    resetParser();
-                    return;
                 case 'F':
                     // End
-                    events.add(new TKeypressEvent(kbEnd));
+                    events.add(new TKeypressEvent(CSI_LETTER_KEYS[ch][0]));
                     resetParser();
                     return;
                 case 'Z':
@@ -1343,11 +2123,16 @@ public final class ECMA48Terminal extends LogicalScreen
                 case 'M':
                     // Mouse position
                     state = ParseState.MOUSE;
+                    paramsCount = 1;
                     return;
                 case '<':
                     // Mouse position, SGR (1006) coordinates
                     state = ParseState.MOUSE_SGR;
                     return;
+                case '?':
+                    // Reply to primary device attributes or DECRQM
+                    state = ParseState.QUERY_REPLY;
+                    return;
                 default:
                     break;
                 }
@@ -1360,13 +2145,12 @@ public final class ECMA48Terminal extends LogicalScreen
         case MOUSE_SGR:
             // Numbers - parameter values
             if ((ch >= '0') && (ch <= '9')) {
-                params.set(params.size() - 1,
-                    params.get(params.size() - 1) + ch);
+                paramDigit(ch);
                 return;
             }
             // Parameter separator
             if (ch == ';') {
-                params.add("");
+                paramNext();
                 return;
             }
 
@@ -1395,103 +2179,99 @@ public final class ECMA48Terminal extends LogicalScreen
             resetParser();
             return;
 
+        case QUERY_REPLY:
+            // Numbers - parameter values
+            if ((ch >= '0') && (ch <= '9')) {
+                paramDigit(ch);
+                return;
+            }
+            // Parameter separator
+            if (ch == ';') {
+                paramNext();
+                return;
+            }
+
+            if (ch == 'c') {
+                parseDA();
+            }
+            if (ch == '$') {
+                state = ParseState.MODE_REPLY;
+                return;
+            }
+            resetParser();
+            return;
+
+        case MODE_REPLY:
+            if (ch == 'y') {
+                parseDECRPM();
+            }
+            resetParser();
+            return;
+
+        case PASTE:
+            pasteBuffer.append(ch);
+            if ((ch == '~') && pasteEnded()) {
+                events.add(parsePaste(pasteBuffer.length() - 6));
+                pasteBuffer.setLength(0);
+                resetParser();
+            } else if (pasteBuffer.length() >= PASTE_MAX) {
+                // Hand over what we have so far.  Keep back a partial end
+                // marker, and a CR that might have its LF still coming.
+                int n = pasteMarkerStart();
+                if ((n > 0) && (pasteBuffer.charAt(n - 1) == '\r')) {
+                    n--;
+                }
+                events.add(parsePaste(n));
+            }
+            return;
+
         case CSI_PARAM:
             // Numbers - parameter values
             if ((ch >= '0') && (ch <= '9')) {
-                params.set(params.size() - 1,
-                    params.get(params.size() - 1) + ch);
-                state = ParseState.CSI_PARAM;
+                paramDigit(ch);
                 return;
             }
             // Parameter separator
             if (ch == ';') {
-                params.add("");
+                paramNext();
+                return;
+            }
+
+            if ((ch == '~') && (paramsCount == 1) && (params[0] == 200)) {
+                // Start of bracketed paste
+                state = ParseState.PASTE;
                 return;
             }
 
             if (ch == '~') {
-                events.add(csiFnKey());
+                TInputEvent event = csiFnKey();
+                if (event != null) {
+                    events.add(event);
+                }
                 resetParser();
                 return;
             }
 
             if ((ch >= 0x30) && (ch <= 0x7E)) {
-                switch (ch) {
-                case 'A':
-                    // Up
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbUp, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                case 'B':
-                    // Down
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbDown, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                case 'C':
-                    // Right
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbRight, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                case 'D':
-                    // Left
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbLeft, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                case 'H':
-                    // Home
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbHome, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                case 'F':
-                    // End
-                    if (params.size() > 1) {
-                        shift = csiIsShift(params.get(1));
-                        alt = csiIsAlt(params.get(1));
-                        ctrl = csiIsCtrl(params.get(1));
-                    }
-                    events.add(new TKeypressEvent(kbEnd, alt, ctrl, shift));
-                    resetParser();
-                    return;
-                default:
-                    break;
+                // Up, Down, Right, Left, Home, or End, with modifiers
+                TKeypress keypress = csiModifiedKey(CSI_LETTER_KEYS[ch]);
+                if (keypress != null) {
+                    events.add(new TKeypressEvent(keypress));
                 }
             }
 
-            // Unknown keystroke, ignore
+            // Unknown keystrokes are ignored
             resetParser();
             return;
 
         case MOUSE:
-            params.set(0, params.get(params.size() - 1) + ch);
-            if (params.get(0).length() == 3) {
+            params[paramsCount - 1] = ch;
+            if (paramsCount == 3) {
                 // We have enough to generate a mouse event
                 events.add(parseMouse());
                 resetParser();
+            } else {
+                paramsCount++;
             }
             return;
 
@@ -1519,292 +2299,65 @@ public final class ECMA48Terminal extends LogicalScreen
     }
 
     /**
-     * Create an xterm OSC sequence to change the window title.
-     *
-     * @param title the new title
-     * @return the string to emit to xterm
-     */
-    private String getSetTitleString(final String title) {
-        return "\033]2;" + title + "\007";
-    }
-
-    /**
-     * Create a SGR parameter sequence for a single color change.
-     *
-     * @param bold if true, set bold
-     * @param color one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param foreground if true, this is a foreground color
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
-     */
-    private String color(final boolean bold, final Color color,
-        final boolean foreground) {
-        return color(color, foreground, true) +
-                rgbColor(bold, color, foreground);
-    }
-
-    /**
-     * Create a T.416 RGB parameter sequence for a single color change.
-     *
-     * @param bold if true, set bold
-     * @param color one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param foreground if true, this is a foreground color
-     * @return the string to emit to an xterm terminal with RGB support,
-     * e.g. "\033[38;2;RR;GG;BBm"
-     */
-    private String rgbColor(final boolean bold, final Color color,
-        final boolean foreground) {
-        if (doRgbColor == false) {
-            return "";
-        }
-        StringBuilder sb = new StringBuilder("\033[");
-        if (bold) {
-            // Bold implies foreground only
-            sb.append("38;2;");
-            if (color.equals(Color.BLACK)) {
-                sb.append("84;84;84");
-            } else if (color.equals(Color.RED)) {
-                sb.append("252;84;84");
-            } else if (color.equals(Color.GREEN)) {
-                sb.append("84;252;84");
-            } else if (color.equals(Color.YELLOW)) {
-                sb.append("252;252;84");
-            } else if (color.equals(Color.BLUE)) {
-                sb.append("84;84;252");
-            } else if (color.equals(Color.MAGENTA)) {
-                sb.append("252;84;252");
-            } else if (color.equals(Color.CYAN)) {
-                sb.append("84;252;252");
-            } else if (color.equals(Color.WHITE)) {
-                sb.append("252;252;252");
-            }
-        } else {
-            if (foreground) {
-                sb.append("38;2;");
-            } else {
-                sb.append("48;2;");
-            }
-            if (color.equals(Color.BLACK)) {
-                sb.append("0;0;0");
-            } else if (color.equals(Color.RED)) {
-                sb.append("168;0;0");
-            } else if (color.equals(Color.GREEN)) {
-                sb.append("0;168;0");
-            } else if (color.equals(Color.YELLOW)) {
-                sb.append("168;84;0");
-            } else if (color.equals(Color.BLUE)) {
-                sb.append("0;0;168");
-            } else if (color.equals(Color.MAGENTA)) {
-                sb.append("168;0;168");
-            } else if (color.equals(Color.CYAN)) {
-                sb.append("0;168;168");
-            } else if (color.equals(Color.WHITE)) {
-                sb.append("168;168;168");
-            }
-        }
-        sb.append("m");
-        return sb.toString();
-    }
-
-    /**
-     * Create a T.416 RGB parameter sequence for both foreground and
-     * background color change.
-     *
-     * @param bold if true, set bold
-     * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @return the string to emit to an xterm terminal with RGB support,
-     * e.g. "\033[38;2;RR;GG;BB;48;2;RR;GG;BBm"
-     */
-    private String rgbColor(final boolean bold, final Color foreColor,
-        final Color backColor) {
-        if (doRgbColor == false) {
-            return "";
-        }
-
-        return rgbColor(bold, foreColor, true) +
-                rgbColor(false, backColor, false);
-    }
-
-    /**
-     * Create a SGR parameter sequence for a single color change.
+     * Ask the terminal for its primary device attributes.  The reply is
+     * handled by parseDA().
      *
-     * @param color one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param foreground if true, this is a foreground color
-     * @param header if true, make the full header, otherwise just emit the
-     * color parameter e.g. "42;"
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[42m"
+     * @return the string to emit to an ANSI / ECMA-style terminal
      */
-    private String color(final Color color, final boolean foreground,
-        final boolean header) {
-
-        int ecmaColor = color.getValue();
-
-        // Convert Color.* values to SGR numerics
-        if (foreground) {
-            ecmaColor += 30;
-        } else {
-            ecmaColor += 40;
-        }
-
-        if (header) {
-            return String.format("\033[%dm", ecmaColor);
-        } else {
-            return String.format("%d;", ecmaColor);
-        }
-    }
-
-    /**
-     * Create a SGR parameter sequence for both foreground and background
-     * color change.
-     *
-     * @param bold if true, set bold
-     * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[31;42m"
-     */
-    private String color(final boolean bold, final Color foreColor,
-        final Color backColor) {
-        return color(foreColor, backColor, true) +
-                rgbColor(bold, foreColor, backColor);
+    private String deviceAttributes() {
+        return "\033[c";
     }
 
     /**
-     * Create a SGR parameter sequence for both foreground and
-     * background color change.
+     * Tell (u)xterm that we want pasted text wrapped in "\033[200~" and
+     * "\033[201~" (bracketed paste mode, 2004), so that it can be told
+     * apart from typing.
      *
-     * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param header if true, make the full header, otherwise just emit the
-     * color parameter e.g. "31;42;"
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[31;42m"
+     * @param on if true, enable bracketed paste
+     * @return the string to emit to xterm
      */
-    private String color(final Color foreColor, final Color backColor,
-        final boolean header) {
-
-        int ecmaForeColor = foreColor.getValue();
-        int ecmaBackColor = backColor.getValue();
-
-        // Convert Color.* values to SGR numerics
-        ecmaBackColor += 40;
-        ecmaForeColor += 30;
-
-        if (header) {
-            return String.format("\033[%d;%dm", ecmaForeColor, ecmaBackColor);
-        } else {
-            return String.format("%d;%d;", ecmaForeColor, ecmaBackColor);
-        }
-    }
-
-    /**
-     * Create a SGR parameter sequence for foreground, background, and
-     * several attributes.  This sequence first resets all attributes to
-     * default, then sets attributes as per the parameters.
-     *
-     * @param foreColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param backColor one of the Color.WHITE, Color.BLUE, etc. constants
-     * @param bold if true, set bold
-     * @param reverse if true, set reverse
-     * @param blink if true, set blink
-     * @param underline if true, set underline
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[0;1;31;42m"
-     */
-    private String color(final Color foreColor, final Color backColor,
-        final boolean bold, final boolean reverse, final boolean blink,
-        final boolean underline) {
-
-        int ecmaForeColor = foreColor.getValue();
-        int ecmaBackColor = backColor.getValue();
-
-        // Convert Color.* values to SGR numerics
-        ecmaBackColor += 40;
-        ecmaForeColor += 30;
-
-        StringBuilder sb = new StringBuilder();
-        if        (  bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;7;5;");
-        } else if (  bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;1;7;");
-        } else if ( !bold &&  reverse &&  blink && !underline ) {
-            sb.append("\033[0;7;5;");
-        } else if (  bold && !reverse &&  blink && !underline ) {
-            sb.append("\033[0;1;5;");
-        } else if (  bold && !reverse && !blink && !underline ) {
-            sb.append("\033[0;1;");
-        } else if ( !bold &&  reverse && !blink && !underline ) {
-            sb.append("\033[0;7;");
-        } else if ( !bold && !reverse &&  blink && !underline) {
-            sb.append("\033[0;5;");
-        } else if (  bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;7;5;4;");
-        } else if (  bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;7;4;");
-        } else if ( !bold &&  reverse &&  blink &&  underline ) {
-            sb.append("\033[0;7;5;4;");
-        } else if (  bold && !reverse &&  blink &&  underline ) {
-            sb.append("\033[0;1;5;4;");
-        } else if (  bold && !reverse && !blink &&  underline ) {
-            sb.append("\033[0;1;4;");
-        } else if ( !bold &&  reverse && !blink &&  underline ) {
-            sb.append("\033[0;7;4;");
-        } else if ( !bold && !reverse &&  blink &&  underline) {
-            sb.append("\033[0;5;4;");
-        } else if ( !bold && !reverse && !blink &&  underline) {
-            sb.append("\033[0;4;");
-        } else {
-            assert (!bold && !reverse && !blink && !underline);
-            sb.append("\033[0;");
+    private String bracketedPaste(final boolean on) {
+        if (on) {
+            return "\033[?2004h";
         }
-        sb.append(String.format("%d;%dm", ecmaForeColor, ecmaBackColor));
-        sb.append(rgbColor(bold, foreColor, backColor));
-        return sb.toString();
+        return "\033[?2004l";
     }
 
     /**
-     * Create a SGR parameter sequence to reset to defaults.
+     * Ask the terminal whether it knows synchronized update mode (DEC
+     * private mode 2026).  The reply is handled by parseDECRPM().
      *
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[0m"
+     * @return the string to emit to an ANSI / ECMA-style terminal
      */
-    private String normal() {
-        return normal(true) + rgbColor(false, Color.WHITE, Color.BLACK);
+    private String synchronizedUpdateQuery() {
+        return "\033[?2026$p";
     }
 
     /**
-     * Create a SGR parameter sequence to reset to defaults.
+     * Create an xterm OSC sequence to change the window title.
      *
-     * @param header if true, make the full header, otherwise just emit the
-     * bare parameter e.g. "0;"
-     * @return the string to emit to an ANSI / ECMA-style terminal,
-     * e.g. "\033[0m"
+     * @param title the new title
+     * @return the string to emit to xterm
      */
-    private String normal(final boolean header) {
-        if (header) {
-            return "\033[0;37;40m";
-        }
-        return "0;37;40";
+    private String getSetTitleString(final String title) {
+        return "\033]2;" + title + "\007";
     }
 
     /**
-     * Create a SGR parameter sequence for enabling the visible cursor.
+     * Add a sequence to the encoder for enabling the visible cursor, if the
+     * cursor is not already in that state.
      *
      * @param on if true, turn on cursor
-     * @return the string to emit to an ANSI / ECMA-style terminal
      */
-    private String cursor(final boolean on) {
+    private void cursor(final boolean on) {
         if (on && !cursorOn) {
             cursorOn = true;
-            return "\033[?25h";
+            encoder.cursor(true);
         }
         if (!on && cursorOn) {
             cursorOn = false;
-            return "\033[?25l";
+            encoder.cursor(false);
         }
-        return "";
     }
 
     /**
@@ -1817,28 +2370,6 @@ public final class ECMA48Terminal extends LogicalScreen
         return "\033[0;37;40m\033[2J";
     }
 
-    /**
-     * Clear the line from the cursor (inclusive) to the end of the screen.
-     * Because some terminals use back-color-erase, set the color to
-     * white-on-black beforehand.
-     *
-     * @return the string to emit to an ANSI / ECMA-style terminal
-     */
-    private String clearRemainingLine() {
-        return "\033[0;37;40m\033[K";
-    }
-
-    /**
-     * Move the cursor to (x, y).
-     *
-     * @param x column coordinate.  0 is the left-most column.
-     * @param y row coordinate.  0 is the top-most row.
-     * @return the string to emit to an ANSI / ECMA-style terminal
-     */
-    private String gotoXY(final int x, final int y) {
-        return String.format("\033[%d;%dH", y + 1, x + 1);
-    }
-
     /**
      * Tell (u)xterm that we want to receive mouse events based on "Any event
      * tracking", UTF-8 coordinates, and then SGR coordinates.  Ideally we
@@ -1865,69 +2396,40 @@ public final class ECMA48Terminal extends LogicalScreen
      */
     public void run() {
         boolean done = false;
-        // available() will often return > 1, so we need to read in chunks to
-        // stay caught up.
-        char [] readBuffer = new char[128];
+        // read() blocks until at least one char is here, then returns
+        // everything that has arrived, up to the size of the buffer.
+        char [] readBuffer = new char[4096];
         List<TInputEvent> events = new LinkedList<TInputEvent>();
 
         while (!done && !stopReaderThread) {
             try {
-                // We assume that if inputStream has bytes available, then
-                // input won't block on read().
-                int n = inputStream.available();
-                if (n > 0) {
-                    if (readBuffer.length < n) {
-                        // The buffer wasn't big enough, make it huger
-                        readBuffer = new char[readBuffer.length * 2];
-                    }
-
-                    int rc = input.read(readBuffer, 0, readBuffer.length);
-                    // System.err.printf("read() %d", rc); System.err.flush();
-                    if (rc == -1) {
-                        // This is EOF
-                        done = true;
-                    } else {
+                int rc = input.read(readBuffer, 0, readBuffer.length);
+                // System.err.printf("read() %d", rc); System.err.flush();
+                if (rc == -1) {
+                    // This is EOF
+                    done = true;
+                } else if (!stopReaderThread) {
+                    synchronized (parserLock) {
                         for (int i = 0; i < rc; i++) {
-                            int ch = readBuffer[i];
-                            processChar(events, (char)ch);
+                            processChar(events, readBuffer[i]);
                         }
-                        getIdleEvents(events);
-                        if (events.size() > 0) {
-                            // Add to the queue for the backend thread to
-                            // be able to obtain.
-                            synchronized (eventQueue) {
-                                eventQueue.addAll(events);
-                            }
-                            if (listener != null) {
-                                synchronized (listener) {
-                                    listener.notifyAll();
-                                }
+                        if (state == ParseState.ESCAPE) {
+                            scheduleEscapeTimeout();
+                        } else if (state == ParseState.PASTE) {
+                            pasteTime = System.currentTimeMillis();
+                            if (!pasteTimeoutPending) {
+                                schedulePasteTimeout(PASTE_DELAY);
                             }
-                            events.clear();
                         }
                     }
-                } else {
-                    getIdleEvents(events);
-                    if (events.size() > 0) {
-                        synchronized (eventQueue) {
-                            eventQueue.addAll(events);
-                        }
-                        events.clear();
-                        if (listener != null) {
-                            synchronized (listener) {
-                                listener.notifyAll();
-                            }
-                        }
-                    }
-
-                    // Wait 10 millis for more data
-                    Thread.sleep(10);
+                    // Add to the queue for the backend thread to be able to
+                    // obtain.
+                    queueEvents(events);
                 }
-                // System.err.println("end while loop"); System.err.flush();
-            } catch (InterruptedException e) {
-                // SQUASH
             } catch (IOException e) {
-                e.printStackTrace();
+                if (!stopReaderThread) {
+                    e.printStackTrace();
+                }
                 done = true;
             }
         } // while ((done == false) && (stopReaderThread == false))
@@ -28,12 +28,17 @@
  */
 package jexer.backend;
 
+import java.util.Arrays;
+
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
 import jexer.bits.GraphicsChars;
+import jexer.bits.PackedCell;
 
 /**
- * A logical screen composed of a 2D array of Cells.
+ * A logical screen composed of a 2D array of Cells.  The cells are stored
+ * packed (see PackedCell) in flat row-major arrays; Cell and CellAttributes
+ * are only created when a caller asks for one.
  */
 public class LogicalScreen implements Screen {
 
@@ -168,14 +173,24 @@ public class LogicalScreen implements Screen {
     }
 
     /**
-     * The physical screen last sent out on flush().
+     * The physical screen last sent out on flush().  Cell (x, y) is at
+     * index (y * width) + x.  Null for an offscreen surface, which is never
+     * flushed.
+     */
+    protected long [] physical;
+
+    /**
+     * If true, this screen is flushed to a device and keeps a physical
+     * copy.  If false, it is an offscreen surface that is only drawn to and
+     * copied from.
      */
-    protected Cell [][] physical;
+    private final boolean hasPhysical;
 
     /**
-     * The logical screen being rendered to.
+     * The logical screen being rendered to.  Cell (x, y) is at index (y *
+     * width) + x.
      */
-    protected Cell [][] logical;
+    protected long [] logical;
 
     /**
      * When true, logical != physical.
@@ -198,6 +213,64 @@ public class LogicalScreen implements Screen {
      */
     protected boolean reallyCleared;
 
+    /**
+     * For each row, the left-most column that may differ between logical
+     * and physical.  A row is clean when dirtyLeft[y] &gt;= dirtyRight[y].
+     */
+    protected int [] dirtyLeft;
+
+    /**
+     * For each row, one past the right-most column that may differ between
+     * logical and physical.
+     */
+    protected int [] dirtyRight;
+
+    /**
+     * Check if a row has any cells that may differ between logical and
+     * physical.
+     *
+     * @param y row coordinate.  0 is the top-most row.
+     * @return true if the row needs to be examined on the next flush
+     */
+    protected final boolean isRowDirty(final int y) {
+        return (dirtyLeft[y] < dirtyRight[y]);
+    }
+
+    /**
+     * Mark every cell of every row as possibly different between logical
+     * and physical.
+     */
+    protected final void markAllDirty() {
+        Arrays.fill(dirtyLeft, 0);
+        Arrays.fill(dirtyRight, width);
+        dirty = true;
+    }
+
+    /**
+     * Mark one cell as possibly different between logical and physical.
+     *
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    protected final void markDirty(final int x, final int y) {
+        if (x < dirtyLeft[y]) {
+            dirtyLeft[y] = x;
+        }
+        if (x >= dirtyRight[y]) {
+            dirtyRight[y] = x + 1;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Mark every row clean.  Backends call this once the physical screen
+     * matches the logical screen.
+     */
+    protected final void clearDirtyRows() {
+        Arrays.fill(dirtyLeft, width);
+        Arrays.fill(dirtyRight, 0);
+    }
+
     /**
      * If true, the cursor is visible and should be placed onscreen at
      * (cursorX, cursorY) during a call to flushPhysical().
@@ -224,7 +297,7 @@ public class LogicalScreen implements Screen {
     public final CellAttributes getAttrXY(final int x, final int y) {
         CellAttributes attr = new CellAttributes();
         if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
-            attr.setTo(logical[x][y]);
+            PackedCell.unpackAttr(logical[(y * width) + x], attr);
         }
         return attr;
     }
@@ -239,7 +312,7 @@ public class LogicalScreen implements Screen {
     public Cell getCharXY(final int x, final int y) {
         Cell cell = new Cell();
         if ((x >= 0) && (x < width) && (y >= 0) && (y < height)) {
-            cell.setTo(logical[x][y]);
+            PackedCell.unpack(logical[(y * width) + x], cell);
         }
         return cell;
     }
@@ -284,14 +357,12 @@ public class LogicalScreen implements Screen {
         }
 
         if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
-            dirty = true;
-            logical[X][Y].setForeColor(attr.getForeColor());
-            logical[X][Y].setBackColor(attr.getBackColor());
-            logical[X][Y].setBold(attr.isBold());
-            logical[X][Y].setBlink(attr.isBlink());
-            logical[X][Y].setReverse(attr.isReverse());
-            logical[X][Y].setUnderline(attr.isUnderline());
-            logical[X][Y].setProtect(attr.isProtect());
+            int i = (Y * width) + X;
+            long cell = PackedCell.setAttr(logical[i], attr);
+            if (cell != logical[i]) {
+                logical[i] = cell;
+                markDirty(X, Y);
+            }
         }
     }
 
@@ -346,20 +417,16 @@ public class LogicalScreen implements Screen {
         // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
 
         if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
-            dirty = true;
-
             // Do not put control characters on the display
             assert (ch >= 0x20);
             assert (ch != 0x7F);
 
-            logical[X][Y].setChar(ch);
-            logical[X][Y].setForeColor(attr.getForeColor());
-            logical[X][Y].setBackColor(attr.getBackColor());
-            logical[X][Y].setBold(attr.isBold());
-            logical[X][Y].setBlink(attr.isBlink());
-            logical[X][Y].setReverse(attr.isReverse());
-            logical[X][Y].setUnderline(attr.isUnderline());
-            logical[X][Y].setProtect(attr.isProtect());
+            int i = (Y * width) + X;
+            long cell = PackedCell.pack(ch, attr);
+            if (cell != logical[i]) {
+                logical[i] = cell;
+                markDirty(X, Y);
+            }
         }
     }
 
@@ -386,8 +453,12 @@ public class LogicalScreen implements Screen {
         // System.err.printf("putCharXY: %d, %d, %c\n", X, Y, ch);
 
         if ((X >= 0) && (X < width) && (Y >= 0) && (Y < height)) {
-            dirty = true;
-            logical[X][Y].setChar(ch);
+            int i = (Y * width) + X;
+            long cell = PackedCell.setChar(logical[i], ch);
+            if (cell != logical[i]) {
+                logical[i] = cell;
+                markDirty(X, Y);
+            }
         }
     }
 
@@ -475,34 +546,18 @@ public class LogicalScreen implements Screen {
      * @param height new height
      */
     private synchronized void reallocate(final int width, final int height) {
-        if (logical != null) {
-            for (int row = 0; row < this.height; row++) {
-                for (int col = 0; col < this.width; col++) {
-                    logical[col][row] = null;
-                }
-            }
-            logical = null;
-        }
-        logical = new Cell[width][height];
-        if (physical != null) {
-            for (int row = 0; row < this.height; row++) {
-                for (int col = 0; col < this.width; col++) {
-                    physical[col][row] = null;
-                }
-            }
-            physical = null;
-        }
-        physical = new Cell[width][height];
-
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                physical[col][row] = new Cell();
-                logical[col][row] = new Cell();
-            }
+        logical = new long[width * height];
+        Arrays.fill(logical, PackedCell.BLANK);
+        if (hasPhysical) {
+            physical = new long[width * height];
+            Arrays.fill(physical, PackedCell.BLANK);
         }
+        dirtyLeft = new int[height];
+        dirtyRight = new int[height];
 
         this.width = width;
         this.height = height;
+        markAllDirty();
 
         clipLeft = 0;
         clipTop = 0;
@@ -562,16 +617,74 @@ public class LogicalScreen implements Screen {
         return this.width;
     }
 
+    /**
+     * The listening object that run() wakes up on new input, for the
+     * backends that extend LogicalScreen.
+     */
+    private Object listener;
+
+    /**
+     * Set listener to a different Object.
+     *
+     * @param listener the new listening object that run() wakes up on new
+     * input
+     */
+    public void setListener(final Object listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Tell the listener that new input is available.
+     */
+    protected final void notifyListener() {
+        notifyListener(listener);
+    }
+
+    /**
+     * Tell a backend's listener that new input is available: call
+     * onBackendInput() if it is a BackendListener, otherwise notifyAll() on
+     * it.  Note package private access.
+     *
+     * @param listener the listener, or null
+     */
+    static void notifyListener(final Object listener) {
+        if (listener instanceof BackendListener) {
+            ((BackendListener) listener).onBackendInput();
+        } else if (listener != null) {
+            synchronized (listener) {
+                listener.notifyAll();
+            }
+        }
+    }
+
     /**
      * Public constructor.  Sets everything to not-bold, white-on-black.
      */
-    protected LogicalScreen() {
+    public LogicalScreen() {
         offsetX  = 0;
         offsetY  = 0;
         width    = 80;
         height   = 24;
         logical  = null;
         physical = null;
+        hasPhysical = true;
+        reallocate(width, height);
+    }
+
+    /**
+     * Public constructor for an offscreen surface, such as a window's
+     * drawing surface, that is drawn to and then copied to another screen
+     * with copyScreen() but never flushed.  It has no physical screen.
+     *
+     * @param width surface width
+     * @param height surface height
+     */
+    public LogicalScreen(final int width, final int height) {
+        offsetX  = 0;
+        offsetY  = 0;
+        logical  = null;
+        physical = null;
+        hasPhysical = false;
         reallocate(width, height);
     }
 
@@ -580,10 +693,13 @@ public class LogicalScreen implements Screen {
      * clip variables.
      */
     public final synchronized void reset() {
-        dirty = true;
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                logical[col][row].reset();
+        for (int y = 0; y < height; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                if (logical[row + x] != PackedCell.BLANK) {
+                    logical[row + x] = PackedCell.BLANK;
+                    markDirty(x, y);
+                }
             }
         }
         resetClipping();
@@ -612,12 +728,10 @@ public class LogicalScreen implements Screen {
      * Clear the physical screen.
      */
     public final void clearPhysical() {
-        dirty = true;
-        for (int row = 0; row < height; row++) {
-            for (int col = 0; col < width; col++) {
-                physical[col][row].reset();
-            }
+        if (physical != null) {
+            Arrays.fill(physical, PackedCell.BLANK);
         }
+        markAllDirty();
     }
 
     /**
@@ -760,6 +874,44 @@ public class LogicalScreen implements Screen {
         clipBottom = oldClipBottom;
     }
 
+    /**
+     * Copy all of another screen's cells onto this one, with the other
+     * screen's top-left corner at (x, y).  The offset and clipping are not
+     * used, and cells that would fall off this screen are dropped.
+     *
+     * @param screen the screen to copy from
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public final synchronized void copyScreen(final Screen screen,
+        final int x, final int y) {
+
+        LogicalScreen source = null;
+        if (screen instanceof LogicalScreen) {
+            source = (LogicalScreen) screen;
+        }
+        int left = Math.max(0, -x);
+        int right = Math.min(screen.getWidth(), width - x);
+        int top = Math.max(0, -y);
+        int bottom = Math.min(screen.getHeight(), height - y);
+
+        for (int row = top; row < bottom; row++) {
+            int to = ((y + row) * width) + x;
+            for (int col = left; col < right; col++) {
+                long cell;
+                if (source != null) {
+                    cell = source.logical[(row * source.width) + col];
+                } else {
+                    cell = PackedCell.pack(screen.getCharXY(col, row));
+                }
+                if (logical[to + col] != cell) {
+                    logical[to + col] = cell;
+                    markDirty(x + col, y + row);
+                }
+            }
+        }
+    }
+
     /**
      * Default implementation does nothing.
      */
@@ -774,6 +926,11 @@ public class LogicalScreen implements Screen {
      */
     public void putCursor(final boolean visible, final int x, final int y) {
 
+        if ((visible != cursorVisible) || (x != cursorX) || (y != cursorY)) {
+            // The cells may be unchanged, but the cursor still has to be
+            // sent out on the next flush.
+            dirty = true;
+        }
         cursorVisible = visible;
         cursorX = x;
         cursorY = y;
@@ -783,6 +940,9 @@ public class LogicalScreen implements Screen {
      * Hide the cursor.
      */
     public final void hideCursor() {
+        if (cursorVisible) {
+            dirty = true;
+        }
         cursorVisible = false;
     }
 
@@ -499,6 +499,19 @@ public class MultiScreen implements Screen {
         }
     }
 
+    /**
+     * Copy all of another screen's cells onto this one.
+     *
+     * @param screen the screen to copy from
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void copyScreen(final Screen screen, final int x, final int y) {
+        for (Screen otherScreen: screens) {
+            otherScreen.copyScreen(screen, x, y);
+        }
+    }
+
     /**
      * Classes must provide an implementation to push the logical screen to
      * the physical device.
@@ -334,6 +334,17 @@ public interface Screen {
     public void drawBoxShadow(final int left, final int top,
         final int right, final int bottom);
 
+    /**
+     * Copy all of another screen's cells onto this one, with the other
+     * screen's top-left corner at (x, y).  The offset and clipping are not
+     * used, and cells that would fall off this screen are dropped.
+     *
+     * @param screen the screen to copy from
+     * @param x column coordinate.  0 is the left-most column.
+     * @param y row coordinate.  0 is the top-most row.
+     */
+    public void copyScreen(final Screen screen, final int x, final int y);
+
     /**
      * Classes must provide an implementation to push the logical screen to
      * the physical device.
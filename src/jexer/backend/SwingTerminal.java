@@ -61,6 +61,7 @@ import javax.swing.SwingUtilities;
 import jexer.TKeypress;
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.PackedCell;
 import jexer.event.TCommandEvent;
 import jexer.event.TInputEvent;
 import jexer.event.TKeypressEvent;
@@ -125,6 +126,13 @@ public final class SwingTerminal extends LogicalScreen
      */
     private HashMap<Cell, BufferedImage> glyphCache;
 
+    /**
+     * A scratch Cell used to unpack the screen's packed cells for
+     * drawGlyph() and drawCursor().  Only touched while synchronized on
+     * this.
+     */
+    private Cell drawCell = new Cell();
+
     // Colors to map DOS colors to AWT colors.
     private static Color MYBLACK;
     private static Color MYRED;
@@ -531,15 +539,17 @@ public final class SwingTerminal extends LogicalScreen
      * Draw one glyph to the screen.
      *
      * @param gr the Swing Graphics context
-     * @param cell the Cell to draw
+     * @param packedCell the packed cell to draw
      * @param xPixel the x-coordinate to render to.  0 means the
      * left-most pixel column.
      * @param yPixel the y-coordinate to render to.  0 means the top-most
      * pixel row.
      */
-    private void drawGlyph(final Graphics gr, final Cell cell,
+    private void drawGlyph(final Graphics gr, final long packedCell,
         final int xPixel, final int yPixel) {
 
+        Cell cell = PackedCell.unpack(packedCell, drawCell);
+
         /*
         System.err.println("drawGlyph(): " + xPixel + " " + yPixel +
             " " + cell);
@@ -639,7 +649,8 @@ public final class SwingTerminal extends LogicalScreen
         ) {
             int xPixel = cursorX * textWidth + left;
             int yPixel = cursorY * textHeight + top;
-            Cell lCell = logical[cursorX][cursorY];
+            Cell lCell = PackedCell.unpack(logical[(cursorY * width)
+                    + cursorX], drawCell);
             gr.setColor(attrToForegroundColor(lCell));
             switch (cursorStyle) {
             default:
@@ -717,6 +728,7 @@ public final class SwingTerminal extends LogicalScreen
             // We need a total repaint
             reallyCleared = true;
         }
+        boolean paintAll = reallyCleared;
 
         // Prevent updates to the screen's data from the TApplication
         // threads.
@@ -728,28 +740,32 @@ public final class SwingTerminal extends LogicalScreen
             */
 
             for (int y = yCellMin; y < yCellMax; y++) {
+                int row = y * width;
                 for (int x = xCellMin; x < xCellMax; x++) {
 
                     int xPixel = x * textWidth + left;
                     int yPixel = y * textHeight + top;
 
-                    Cell lCell = logical[x][y];
-                    Cell pCell = physical[x][y];
+                    long lCell = logical[row + x];
+                    long pCell = physical[row + x];
 
-                    if (!lCell.equals(pCell)
-                        || lCell.isBlink()
+                    if ((lCell != pCell)
+                        || PackedCell.isBlink(lCell)
                         || reallyCleared
                         || (swing.getFrame() == null)) {
 
                         drawGlyph(gr, lCell, xPixel, yPixel);
 
                         // Physical is always updated
-                        physical[x][y].setTo(lCell);
+                        physical[row + x] = lCell;
                     }
                 }
             }
             drawCursor(gr);
 
+            if (paintAll) {
+                clearDirtyRows();
+            }
             dirty = false;
             reallyCleared = false;
         } // synchronized (this)
@@ -803,35 +819,51 @@ public final class SwingTerminal extends LogicalScreen
 
         if ((swing.getFrame() != null) && (swing.getBufferStrategy() != null)) {
             // See if it is time to flip the blink time.
+            boolean blinkFlipped = false;
             long nowTime = (new Date()).getTime();
             if (nowTime > blinkMillis + lastBlinkTime) {
                 lastBlinkTime = nowTime;
                 cursorBlinkVisible = !cursorBlinkVisible;
+                blinkFlipped = true;
             }
 
             Graphics gr = swing.getBufferStrategy().getDrawGraphics();
 
             synchronized (this) {
+                if (blinkFlipped) {
+                    // Blinking cells can be anywhere, look at everything.
+                    markAllDirty();
+                }
                 for (int y = 0; y < height; y++) {
-                    for (int x = 0; x < width; x++) {
-                        Cell lCell = logical[x][y];
-                        Cell pCell = physical[x][y];
+                    int row = y * width;
+                    for (int x = dirtyLeft[y]; x < dirtyRight[y]; x++) {
+                        long lCell = logical[row + x];
+                        long pCell = physical[row + x];
 
                         int xPixel = x * textWidth + left;
                         int yPixel = y * textHeight + top;
 
-                        if (!lCell.equals(pCell)
-                            || ((x == cursorX)
-                                && (y == cursorY)
-                                && cursorVisible)
-                            || (lCell.isBlink())
+                        if ((lCell != pCell)
+                            || PackedCell.isBlink(lCell)
                         ) {
                             drawGlyph(gr, lCell, xPixel, yPixel);
-                            physical[x][y].setTo(lCell);
+                            physical[row + x] = lCell;
                         }
                     }
                 }
+                if (cursorVisible
+                    && (cursorY <= height - 1)
+                    && (cursorX <= width - 1)
+                ) {
+                    // Redraw the glyph under the cursor, drawCursor() does
+                    // not erase it.
+                    int i = (cursorY * width) + cursorX;
+                    drawGlyph(gr, logical[i], cursorX * textWidth + left,
+                        cursorY * textHeight + top);
+                    physical[i] = logical[i];
+                }
                 drawCursor(gr);
+                clearDirtyRows();
             } // synchronized (this)
 
             gr.dispose();
@@ -851,19 +883,32 @@ public final class SwingTerminal extends LogicalScreen
         int yMax = 0;
 
         synchronized (this) {
+            long nowTime = (new Date()).getTime();
+            if (nowTime > blinkMillis + lastBlinkTime) {
+                // paint() will flip the blink, and blinking cells can be
+                // anywhere.
+                markAllDirty();
+            }
+            if (cursorVisible
+                && (cursorY <= height - 1)
+                && (cursorX <= width - 1)
+            ) {
+                markDirty(cursorX, cursorY);
+            }
             for (int y = 0; y < height; y++) {
-                for (int x = 0; x < width; x++) {
-                    Cell lCell = logical[x][y];
-                    Cell pCell = physical[x][y];
+                int row = y * width;
+                for (int x = dirtyLeft[y]; x < dirtyRight[y]; x++) {
+                    long lCell = logical[row + x];
+                    long pCell = physical[row + x];
 
                     int xPixel = x * textWidth + left;
                     int yPixel = y * textHeight + top;
 
-                    if (!lCell.equals(pCell)
+                    if ((lCell != pCell)
                         || ((x == cursorX)
                             && (y == cursorY)
                             && cursorVisible)
-                        || lCell.isBlink()
+                        || PackedCell.isBlink(lCell)
                     ) {
                         if (xPixel < xMin) {
                             xMin = xPixel;
@@ -880,6 +925,7 @@ public final class SwingTerminal extends LogicalScreen
                     }
                 }
             }
+            clearDirtyRows();
         }
         if (xMin + textWidth >= xMax) {
             xMax += textWidth;
@@ -936,11 +982,13 @@ public final class SwingTerminal extends LogicalScreen
             && (cursorX <= width - 1)
         ) {
             // Make the current cursor position dirty
-            if (physical[cursorX][cursorY].getChar() == 'Q') {
-                physical[cursorX][cursorY].setChar('X');
+            int i = (cursorY * width) + cursorX;
+            if (PackedCell.getChar(physical[i]) == 'Q') {
+                physical[i] = PackedCell.setChar(physical[i], 'X');
             } else {
-                physical[cursorX][cursorY].setChar('Q');
+                physical[i] = PackedCell.setChar(physical[i], 'Q');
             }
+            markDirty(cursorX, cursorY);
         }
 
         super.putCursor(visible, x, y);
@@ -993,21 +1041,6 @@ public final class SwingTerminal extends LogicalScreen
         return sessionInfo;
     }
 
-    /**
-     * The listening object that run() wakes up on new input.
-     */
-    private Object listener;
-
-    /**
-     * Set listener to a different Object.
-     *
-     * @param listener the new listening object that run() wakes up on new
-     * input
-     */
-    public void setListener(final Object listener) {
-        this.listener = listener;
-    }
-
     /**
      * The event queue, filled up by a thread reading on input.
      */
@@ -1155,7 +1188,7 @@ public final class SwingTerminal extends LogicalScreen
             e.printStackTrace();
         }
 
-        this.listener    = listener;
+        setListener(listener);
         mouse1           = false;
         mouse2           = false;
         mouse3           = false;
@@ -1274,7 +1307,7 @@ public final class SwingTerminal extends LogicalScreen
             e.printStackTrace();
         }
 
-        this.listener    = listener;
+        setListener(listener);
         mouse1           = false;
         mouse2           = false;
         mouse3           = false;
@@ -1540,11 +1573,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(new TKeypressEvent(keypress));
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1578,11 +1607,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(new TCommandEvent(cmAbort));
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1668,11 +1693,7 @@ public final class SwingTerminal extends LogicalScreen
                 sessionInfo.getWindowWidth(), sessionInfo.getWindowHeight());
             eventQueue.add(windowResize);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1706,11 +1727,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(mouseEvent);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1734,11 +1751,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(mouseEvent);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1799,11 +1812,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(mouseEvent);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1846,11 +1855,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(mouseEvent);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
     /**
@@ -1892,11 +1897,7 @@ public final class SwingTerminal extends LogicalScreen
         synchronized (eventQueue) {
             eventQueue.add(mouseEvent);
         }
-        if (listener != null) {
-            synchronized (listener) {
-                listener.notifyAll();
-            }
-        }
+        notifyListener();
     }
 
 }
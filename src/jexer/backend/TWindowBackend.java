@@ -257,6 +257,13 @@ public class TWindowBackend extends TWindow implements Backend {
         this.listener = listener;
     }
 
+    /**
+     * Tell the listener that new input is available.
+     */
+    private void notifyListener() {
+        LogicalScreen.notifyListener(listener);
+    }
+
     /**
      * Draw the foreground colors grid.
      */
@@ -339,9 +346,7 @@ public class TWindowBackend extends TWindow implements Backend {
             synchronized (eventQueue) {
                 eventQueue.add(event);
             }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            notifyListener();
         }
         super.onMouseDown(mouse);
     }
@@ -362,9 +367,7 @@ public class TWindowBackend extends TWindow implements Backend {
             synchronized (eventQueue) {
                 eventQueue.add(event);
             }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            notifyListener();
         }
         super.onMouseUp(mouse);
     }
@@ -387,9 +390,7 @@ public class TWindowBackend extends TWindow implements Backend {
             synchronized (eventQueue) {
                 eventQueue.add(event);
             }
-            synchronized (listener) {
-                listener.notifyAll();
-            }
+            notifyListener();
         } else {
             otherMouseX = -1;
             otherMouseY = -1;
@@ -408,9 +409,7 @@ public class TWindowBackend extends TWindow implements Backend {
         synchronized (eventQueue) {
             eventQueue.add(event);
         }
-        synchronized (listener) {
-            listener.notifyAll();
-        }
+        notifyListener();
     }
 
 }
@@ -0,0 +1,216 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.bits;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts durations in log-linear buckets, in the manner of
+ * an HDR histogram: every power of two is split into 16 buckets, so any
+ * value read back is within 1/16 (about 6%) of what was recorded, from one
+ * nanosecond up to hundreds of years.  Recording is constant time, does not
+ * allocate, and is safe to do from any thread.
+ */
+public final class LatencyHistogram {
+
+    /**
+     * The number of buckets per power of two, as a shift.
+     */
+    private static final int SUB_BITS = 4;
+
+    /**
+     * The number of buckets per power of two.
+     */
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+
+    /**
+     * The total number of buckets.
+     */
+    private static final int BUCKETS = (64 - SUB_BITS) * SUB_COUNT;
+
+    /**
+     * Count of values in each bucket.
+     */
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    /**
+     * Number of values recorded.
+     */
+    private final AtomicLong count = new AtomicLong();
+
+    /**
+     * Sum of the values recorded.
+     */
+    private final AtomicLong total = new AtomicLong();
+
+    /**
+     * Largest value recorded.
+     */
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * Get the bucket a value falls in.
+     *
+     * @param value a non-negative value
+     * @return the bucket index
+     */
+    private static int bucket(final long value) {
+        if (value < (SUB_COUNT << 1)) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return ((shift + 1) << SUB_BITS)
+            + (int) ((value >>> shift) - SUB_COUNT);
+    }
+
+    /**
+     * Get the largest value that falls in a bucket.
+     *
+     * @param bucket the bucket index
+     * @return the largest value in the bucket
+     */
+    private static long highestValue(final int bucket) {
+        if (bucket < (SUB_COUNT << 1)) {
+            return bucket;
+        }
+        int shift = (bucket >>> SUB_BITS) - 1;
+        long mantissa = (bucket & (SUB_COUNT - 1)) + SUB_COUNT;
+        return ((mantissa + 1) << shift) - 1;
+    }
+
+    /**
+     * Record a value.  Negative values are recorded as 0.
+     *
+     * @param value the value, normally in nanoseconds
+     */
+    public void record(final long value) {
+        long v = Math.max(value, 0);
+        counts.incrementAndGet(bucket(v));
+        count.incrementAndGet();
+        total.addAndGet(v);
+        for (;;) {
+            long oldMax = max.get();
+            if ((v <= oldMax) || max.compareAndSet(oldMax, v)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Forget all recorded values.  Values recorded at the same time as the
+     * reset may or may not be kept.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        total.set(0);
+        max.set(0);
+    }
+
+    /**
+     * Get the number of values recorded.
+     *
+     * @return the count
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Get the largest value recorded.
+     *
+     * @return the largest value, or 0 if nothing was recorded
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the mean of the values recorded.
+     *
+     * @return the mean, or 0 if nothing was recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        return ((double) total.get()) / n;
+    }
+
+    /**
+     * Get the value that a percentage of the recorded values are at or
+     * below.  The answer is the largest value of the bucket where that
+     * percentage is reached, so it is never less than the true value.
+     *
+     * @param percentile the percentage, 0.0 to 100.0
+     * @return the value, or 0 if nothing was recorded
+     */
+    public long getValueAtPercentile(final double percentile) {
+        long n = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            n += counts.get(i);
+        }
+        if (n == 0) {
+            return 0;
+        }
+        double p = Math.min(Math.max(percentile, 0.0), 100.0);
+        long wanted = Math.max(1, (long) Math.ceil(p * n / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= wanted) {
+                return Math.min(highestValue(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * Make human-readable description of this LatencyHistogram, treating
+     * the values as nanoseconds.
+     *
+     * @return displayable String
+     */
+    @Override
+    public String toString() {
+        return String.format("count %d mean %.3f p50 %.3f p90 %.3f " +
+            "p99 %.3f p99.9 %.3f max %.3f (millis)", getCount(),
+            getMean() / 1000000.0,
+            getValueAtPercentile(50.0) / 1000000.0,
+            getValueAtPercentile(90.0) / 1000000.0,
+            getValueAtPercentile(99.0) / 1000000.0,
+            getValueAtPercentile(99.9) / 1000000.0,
+            getMax() / 1000000.0);
+    }
+
+}
@@ -0,0 +1,350 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.bits;
+
+/**
+ * PackedCell contains methods to store a Cell (character plus attributes)
+ * in a single long, so that screens can keep flat primitive arrays rather
+ * than one Cell object per location.
+ *
+ * <p>The bit layout is:
+ *
+ * <pre>
+ *   bits  0 - 15  character
+ *   bits 16 - 23  foreground color value
+ *   bits 24 - 31  background color value
+ *   bit  32       bold
+ *   bit  33       blink
+ *   bit  34       reverse
+ *   bit  35       underline
+ *   bit  36       protect
+ * </pre>
+ */
+public final class PackedCell {
+
+    /**
+     * Private constructor prevents accidental creation of this class.
+     */
+    private PackedCell() {
+    }
+
+    /**
+     * Mask for the character bits.
+     */
+    public static final long CHAR_MASK          = 0xFFFFL;
+
+    /**
+     * Shift for the foreground color value.
+     */
+    private static final int FORE_SHIFT         = 16;
+
+    /**
+     * Shift for the background color value.
+     */
+    private static final int BACK_SHIFT         = 24;
+
+    /**
+     * Mask for a color value once shifted down.
+     */
+    private static final long COLOR_MASK        = 0xFFL;
+
+    /**
+     * Bold bit.
+     */
+    private static final long BOLD              = 1L << 32;
+
+    /**
+     * Blink bit.
+     */
+    private static final long BLINK             = 1L << 33;
+
+    /**
+     * Reverse bit.
+     */
+    private static final long REVERSE           = 1L << 34;
+
+    /**
+     * Underline bit.
+     */
+    private static final long UNDERLINE         = 1L << 35;
+
+    /**
+     * Protect bit.
+     */
+    private static final long PROTECT           = 1L << 36;
+
+    /**
+     * Mask for everything except the character.
+     */
+    public static final long ATTR_MASK          = ~CHAR_MASK;
+
+    /**
+     * A value that can never be produced by pack(), usable as a "no
+     * attributes known yet" marker.
+     */
+    public static final long NONE               = -1L;
+
+    /**
+     * Colors indexed by their SGR value.
+     */
+    private static final Color [] COLORS = {
+        Color.BLACK,
+        Color.RED,
+        Color.GREEN,
+        Color.YELLOW,
+        Color.BLUE,
+        Color.MAGENTA,
+        Color.CYAN,
+        Color.WHITE,
+    };
+
+    /**
+     * A blank cell: white-on-black space, no bold/blink/reverse/underline/
+     * protect.  This is the same as a new Cell().
+     */
+    public static final long BLANK = ' '
+        | ((long) Color.WHITE.getValue() << FORE_SHIFT)
+        | ((long) Color.BLACK.getValue() << BACK_SHIFT);
+
+    /**
+     * Pack the attributes portion of a cell.
+     *
+     * @param attr the attributes (bold, foreColor, backColor, etc.)
+     * @return the packed attributes, with a zero character
+     */
+    public static long packAttr(final CellAttributes attr) {
+        long result = ((long) attr.getForeColor().getValue() << FORE_SHIFT)
+            | ((long) attr.getBackColor().getValue() << BACK_SHIFT);
+        if (attr.isBold()) {
+            result |= BOLD;
+        }
+        if (attr.isBlink()) {
+            result |= BLINK;
+        }
+        if (attr.isReverse()) {
+            result |= REVERSE;
+        }
+        if (attr.isUnderline()) {
+            result |= UNDERLINE;
+        }
+        if (attr.isProtect()) {
+            result |= PROTECT;
+        }
+        return result;
+    }
+
+    /**
+     * Pack a character and attributes.
+     *
+     * @param ch the character
+     * @param attr the attributes (bold, foreColor, backColor, etc.)
+     * @return the packed cell
+     */
+    public static long pack(final char ch, final CellAttributes attr) {
+        return packAttr(attr) | ch;
+    }
+
+    /**
+     * Pack a Cell.
+     *
+     * @param cell the cell
+     * @return the packed cell
+     */
+    public static long pack(final Cell cell) {
+        return packAttr(cell) | cell.getChar();
+    }
+
+    /**
+     * Replace the character of a packed cell.
+     *
+     * @param cell the packed cell
+     * @param ch the new character
+     * @return the packed cell with the new character
+     */
+    public static long setChar(final long cell, final char ch) {
+        return (cell & ATTR_MASK) | ch;
+    }
+
+    /**
+     * Replace the attributes of a packed cell.
+     *
+     * @param cell the packed cell
+     * @param attr the new attributes
+     * @return the packed cell with the new attributes
+     */
+    public static long setAttr(final long cell, final CellAttributes attr) {
+        return (cell & CHAR_MASK) | packAttr(attr);
+    }
+
+    /**
+     * Check if two packed cells have the same attributes, ignoring the
+     * character.
+     *
+     * @param a a packed cell
+     * @param b another packed cell
+     * @return true if the attributes are equal
+     */
+    public static boolean attrEquals(final long a, final long b) {
+        return ((a ^ b) & ATTR_MASK) == 0;
+    }
+
+    /**
+     * Get the character.
+     *
+     * @param cell the packed cell
+     * @return the character
+     */
+    public static char getChar(final long cell) {
+        return (char) (cell & CHAR_MASK);
+    }
+
+    /**
+     * Get the foreground color SGR value.
+     *
+     * @param cell the packed cell
+     * @return the color value, 0 through 7
+     */
+    public static int getForeValue(final long cell) {
+        return (int) ((cell >>> FORE_SHIFT) & COLOR_MASK);
+    }
+
+    /**
+     * Get the background color SGR value.
+     *
+     * @param cell the packed cell
+     * @return the color value, 0 through 7
+     */
+    public static int getBackValue(final long cell) {
+        return (int) ((cell >>> BACK_SHIFT) & COLOR_MASK);
+    }
+
+    /**
+     * Get the foreground color.
+     *
+     * @param cell the packed cell
+     * @return Color.WHITE, Color.RED, etc.
+     */
+    public static Color getForeColor(final long cell) {
+        return COLORS[getForeValue(cell)];
+    }
+
+    /**
+     * Get the background color.
+     *
+     * @param cell the packed cell
+     * @return Color.WHITE, Color.RED, etc.
+     */
+    public static Color getBackColor(final long cell) {
+        return COLORS[getBackValue(cell)];
+    }
+
+    /**
+     * Get bold.
+     *
+     * @param cell the packed cell
+     * @return bold value
+     */
+    public static boolean isBold(final long cell) {
+        return (cell & BOLD) != 0;
+    }
+
+    /**
+     * Get blink.
+     *
+     * @param cell the packed cell
+     * @return blink value
+     */
+    public static boolean isBlink(final long cell) {
+        return (cell & BLINK) != 0;
+    }
+
+    /**
+     * Get reverse.
+     *
+     * @param cell the packed cell
+     * @return reverse value
+     */
+    public static boolean isReverse(final long cell) {
+        return (cell & REVERSE) != 0;
+    }
+
+    /**
+     * Get underline.
+     *
+     * @param cell the packed cell
+     * @return underline value
+     */
+    public static boolean isUnderline(final long cell) {
+        return (cell & UNDERLINE) != 0;
+    }
+
+    /**
+     * Get protect.
+     *
+     * @param cell the packed cell
+     * @return protect value
+     */
+    public static boolean isProtect(final long cell) {
+        return (cell & PROTECT) != 0;
+    }
+
+    /**
+     * Copy the attributes of a packed cell into a CellAttributes.
+     *
+     * @param cell the packed cell
+     * @param attr the attributes to overwrite
+     * @return attr
+     */
+    public static CellAttributes unpackAttr(final long cell,
+        final CellAttributes attr) {
+
+        attr.setForeColor(getForeColor(cell));
+        attr.setBackColor(getBackColor(cell));
+        attr.setBold(isBold(cell));
+        attr.setBlink(isBlink(cell));
+        attr.setReverse(isReverse(cell));
+        attr.setUnderline(isUnderline(cell));
+        attr.setProtect(isProtect(cell));
+        return attr;
+    }
+
+    /**
+     * Copy a packed cell into a Cell.
+     *
+     * @param cell the packed cell
+     * @param result the Cell to overwrite
+     * @return result
+     */
+    public static Cell unpack(final long cell, final Cell result) {
+        unpackAttr(cell, result);
+        result.setChar(getChar(cell));
+        return result;
+    }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.bits;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ThreadSupport creates all of the threads that Jexer starts on its own:
+ * the TApplication event handlers and the backend and terminal reader
+ * threads.  By default these are ordinary platform threads.  When the
+ * "jexer.virtualThreads" property is "true" and the running JVM supports
+ * virtual threads, they are virtual threads instead, which lets a server
+ * host many more sessions than it could afford platform threads for.
+ */
+public final class ThreadSupport {
+
+    /**
+     * The factory that creates platform threads.
+     */
+    private static final ThreadFactory PLATFORM = new ThreadFactory() {
+        public Thread newThread(final Runnable runnable) {
+            return new Thread(runnable);
+        }
+    };
+
+    /**
+     * The factory used to create new threads.
+     */
+    private static volatile ThreadFactory threadFactory = PLATFORM;
+
+    /**
+     * If true, threadFactory creates virtual threads.
+     */
+    private static volatile boolean virtual = false;
+
+    /**
+     * The shared timer used for short delayed work such as input timeouts,
+     * created on first use.
+     */
+    private static ScheduledExecutorService scheduler = null;
+
+    static {
+        if ("true".equals(System.getProperty("jexer.virtualThreads"))) {
+            ThreadFactory factory = virtualThreadFactory();
+            if (factory != null) {
+                threadFactory = factory;
+                virtual = true;
+            }
+        }
+    }
+
+    /**
+     * Private constructor prevents accidental creation of this class.
+     */
+    private ThreadSupport() {}
+
+    /**
+     * Get a factory for virtual threads.  Virtual threads are looked up by
+     * reflection so that Jexer still runs on JVMs that lack them.
+     *
+     * @return a factory for virtual threads, or null if this JVM does not
+     * support them
+     */
+    public static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Method factory = Class.forName("java.lang.Thread$Builder").
+                getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (Exception e) {
+            // SQUASH, no virtual threads on this JVM
+            return null;
+        }
+    }
+
+    /**
+     * Get the factory used to create new threads.
+     *
+     * @return the thread factory
+     */
+    public static ThreadFactory getThreadFactory() {
+        return threadFactory;
+    }
+
+    /**
+     * Set the factory used to create new threads.  Threads that are already
+     * running are not affected.
+     *
+     * @param factory the new thread factory, or null to go back to platform
+     * threads
+     */
+    public static void setThreadFactory(final ThreadFactory factory) {
+        threadFactory = (factory == null ? PLATFORM : factory);
+        virtual = false;
+    }
+
+    /**
+     * Enable or disable virtual threads.
+     *
+     * @param enable if true, create virtual threads
+     * @return true if new threads will be virtual threads, false if this JVM
+     * does not support them or enable was false
+     */
+    public static boolean setVirtualThreads(final boolean enable) {
+        ThreadFactory factory = (enable ? virtualThreadFactory() : null);
+        setThreadFactory(factory);
+        virtual = (factory != null);
+        return virtual;
+    }
+
+    /**
+     * See if new threads are virtual threads.
+     *
+     * @return true if virtual threads were enabled and are supported
+     */
+    public static boolean isVirtualThreads() {
+        return virtual;
+    }
+
+    /**
+     * Create and start a new thread.
+     *
+     * @param runnable the code to run
+     * @return the running thread
+     */
+    public static Thread startThread(final Runnable runnable) {
+        Thread thread = threadFactory.newThread(runnable);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Create and start a new daemon thread.  Daemon threads do not keep the
+     * JVM alive, which suits threads that may stay blocked on a read that
+     * will never complete.
+     *
+     * @param runnable the code to run
+     * @return the running thread
+     */
+    public static Thread startDaemonThread(final Runnable runnable) {
+        Thread thread = threadFactory.newThread(runnable);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /**
+     * Get the shared timer.  It runs on a single daemon thread, so the tasks
+     * given to it must be short and must not block.
+     *
+     * @return the timer
+     */
+    public static synchronized ScheduledExecutorService getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = threadFactory.newThread(runnable);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        }
+        return scheduler;
+    }
+
+}
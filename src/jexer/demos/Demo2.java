@@ -29,12 +29,14 @@
 package jexer.demos;
 
 import java.net.*;
+import jexer.TApplicationServer;
 import jexer.net.*;
 
 /**
  * This class is the main driver for a simple demonstration of Jexer's
  * capabilities.  Rather than run locally, it serves a Jexer UI over a TCP
- * port.
+ * port.  If a thread count is given, the sessions' main loops share a
+ * TApplicationServer pool of that many threads.
  */
 public class Demo2 {
 
@@ -47,11 +49,15 @@ public class Demo2 {
         ServerSocket server = null;
         try {
             if (args.length == 0) {
-                System.err.printf("USAGE: java -cp jexer.jar jexer.demos.Demo2 port\n");
+                System.err.printf("USAGE: java -cp jexer.jar jexer.demos.Demo2 port [threads]\n");
                 return;
             }
 
             int port = Integer.parseInt(args[0]);
+            TApplicationServer pool = null;
+            if (args.length > 1) {
+                pool = new TApplicationServer(Integer.parseInt(args[1]));
+            }
             server = new TelnetServerSocket(port);
             while (true) {
                 Socket socket = server.accept();
@@ -61,7 +67,11 @@ public class Demo2 {
                 System.out.printf("   language: %s\n",
                     ((jexer.net.TelnetInputStream) socket.getInputStream()).
                         getLanguage());
-                (new Thread(app)).start();
+                if (pool != null) {
+                    pool.addApplication(app);
+                } else {
+                    (new Thread(app)).start();
+                }
             }
         } catch (Exception e) {
             e.printStackTrace();
@@ -77,7 +77,7 @@ public final class TCommandEvent extends TInputEvent {
         if (rhs instanceof TCommandEvent) {
             TCommandEvent that = (TCommandEvent) rhs;
             return (cmd.equals(that.cmd)
-                && (getTime().equals(that.getTime())));
+                && (getTimestamp() == that.getTimestamp()));
         }
 
         TCommand that = (TCommand) rhs;
@@ -94,7 +94,7 @@ public final class TCommandEvent extends TInputEvent {
         int A = 13;
         int B = 23;
         int hash = A;
-        hash = (B * hash) + getTime().hashCode();
+        hash = (B * hash) + (int) (getTimestamp() ^ (getTimestamp() >>> 32));
         hash = (B * hash) + cmd.hashCode();
         return hash;
     }
@@ -36,9 +36,14 @@ import java.util.Date;
 public abstract class TInputEvent {
 
     /**
-     * Time at which event was generated.
+     * Wall clock time at which event was generated, in millis.
      */
-    private Date time;
+    private final long time;
+
+    /**
+     * Monotonic time at which event was generated, from System.nanoTime().
+     */
+    private final long timestamp;
 
     /**
      * Get time.
@@ -46,7 +51,18 @@ public abstract class TInputEvent {
      * @return the time that this event was generated
      */
     public final Date getTime() {
-        return time;
+        return new Date(time);
+    }
+
+    /**
+     * Get the monotonic time at which this event was generated.  For events
+     * from a backend, this is when the backend decoded the input.  Use this
+     * to measure latency.
+     *
+     * @return the System.nanoTime() at which this event was generated
+     */
+    public final long getTimestamp() {
+        return timestamp;
     }
 
     /**
@@ -54,6 +70,7 @@ public abstract class TInputEvent {
      */
     protected TInputEvent() {
         // Save the current time
-        time = new Date();
+        time = System.currentTimeMillis();
+        timestamp = System.nanoTime();
     }
 }
@@ -116,7 +116,7 @@ public final class TKeypressEvent extends TInputEvent {
         if (rhs instanceof TKeypressEvent) {
             TKeypressEvent that = (TKeypressEvent) rhs;
             return (key.equals(that.key)
-                && (getTime().equals(that.getTime())));
+                && (getTimestamp() == that.getTimestamp()));
         }
 
         TKeypress that = (TKeypress) rhs;
@@ -133,7 +133,7 @@ public final class TKeypressEvent extends TInputEvent {
         int A = 13;
         int B = 23;
         int hash = A;
-        hash = (B * hash) + getTime().hashCode();
+        hash = (B * hash) + (int) (getTimestamp() ^ (getTimestamp() >>> 32));
         hash = (B * hash) + key.hashCode();
         return hash;
     }
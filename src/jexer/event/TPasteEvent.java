@@ -0,0 +1,102 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.event;
+
+/**
+ * This class encapsulates pasted text.  Backends that can tell pasted text
+ * from typing (e.g. xterm bracketed paste) deliver the whole paste as one
+ * TPasteEvent rather than as one TKeypressEvent per character.
+ */
+public final class TPasteEvent extends TInputEvent {
+
+    /**
+     * The pasted text.  Line breaks are '\n'.
+     */
+    private String text;
+
+    /**
+     * Get the pasted text.
+     *
+     * @return the text, with '\n' line breaks
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * Public contructor.
+     *
+     * @param text the pasted text, with '\n' line breaks
+     */
+    public TPasteEvent(final String text) {
+        this.text = text;
+    }
+
+    /**
+     * Comparison check.  All fields must match to return true.
+     *
+     * @param rhs another TPasteEvent instance
+     * @return true if all fields are equal
+     */
+    @Override
+    public boolean equals(final Object rhs) {
+        if (!(rhs instanceof TPasteEvent)) {
+            return false;
+        }
+
+        TPasteEvent that = (TPasteEvent) rhs;
+        return (text.equals(that.text)
+            && (getTimestamp() == that.getTimestamp()));
+    }
+
+    /**
+     * Hashcode uses all fields in equals().
+     *
+     * @return the hash
+     */
+    @Override
+    public int hashCode() {
+        int A = 13;
+        int B = 23;
+        int hash = A;
+        hash = (B * hash) + (int) (getTimestamp() ^ (getTimestamp() >>> 32));
+        hash = (B * hash) + text.hashCode();
+        return hash;
+    }
+
+    /**
+     * Make human-readable description of this TPasteEvent.
+     *
+     * @return displayable String
+     */
+    @Override
+    public String toString() {
+        return String.format("Paste: %d chars", text.length());
+    }
+}
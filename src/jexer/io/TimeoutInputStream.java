@@ -30,12 +30,29 @@ package jexer.io;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import jexer.bits.ThreadSupport;
 
 /**
  * This class provides an optional millisecond timeout on its read()
  * operations.  This permits callers to bail out rather than block.
+ *
+ * On the first read() a daemon thread is started that blocks on the
+ * wrapped stream and hands bytes over through a small buffer.  Readers
+ * wait on a Condition, so a waiting read() uses no CPU and wakes up as soon
+ * as data arrives, the timeout expires, or cancelRead() is called.  A
+ * Condition rather than a monitor wait() does not pin a virtual thread to
+ * its carrier.
  */
-public class TimeoutInputStream extends InputStream {
+public class TimeoutInputStream extends InputStream implements Runnable {
+
+    /**
+     * The size of the buffer between the pump thread and readers.
+     */
+    private static final int BUFFER_SIZE = 4096;
 
     /**
      * The wrapped stream.
@@ -49,16 +66,65 @@ public class TimeoutInputStream extends InputStream {
      */
     private int timeoutMillis;
 
+    /**
+     * Guards everything below that the pump thread and readers share.
+     */
+    private final ReentrantLock lock = new ReentrantLock();
+
+    /**
+     * Signalled whenever the buffer, eof, or cancel changes.
+     */
+    private final Condition changed = lock.newCondition();
+
     /**
      * If true, the current read() will timeout soon.
      */
-    private volatile boolean cancel = false;
+    private boolean cancel = false;
+
+    /**
+     * The thread reading from the wrapped stream, or null if no read() has
+     * been made yet.
+     */
+    private Thread pumpThread = null;
+
+    /**
+     * Bytes read from the wrapped stream that have not been returned yet,
+     * as a circular buffer.
+     */
+    private byte [] buffer = new byte[BUFFER_SIZE];
+
+    /**
+     * The index of the first unread byte in buffer.
+     */
+    private int bufferStart = 0;
+
+    /**
+     * The number of unread bytes in buffer.
+     */
+    private int bufferCount = 0;
+
+    /**
+     * If true, the wrapped stream has reached EOF or failed, or this stream
+     * was closed.
+     */
+    private boolean eof = false;
+
+    /**
+     * If the wrapped stream failed, the exception it threw.
+     */
+    private IOException error = null;
 
     /**
      * Request that the current read() operation timeout immediately.
      */
-    public synchronized void cancelRead() {
-        cancel = true;
+    public void cancelRead() {
+        lock.lock();
+        try {
+            cancel = true;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
@@ -79,7 +145,7 @@ public class TimeoutInputStream extends InputStream {
      * @param timeoutMillis the timeout value in millis.  If it takes longer
      * than this for bytes to be available for read then a
      * ReadTimeoutException is thrown.  A value of 0 means to block as a
-     * normal InputStream would.
+     * normal InputStream would, though cancelRead() can still end the wait.
      */
     public TimeoutInputStream(final InputStream stream,
         final int timeoutMillis) {
@@ -94,127 +160,145 @@ public class TimeoutInputStream extends InputStream {
     }
 
     /**
-     * Reads the next byte of data from the input stream.
-     *
-     * @return the next byte of data, or -1 if there is no more data because
-     * the end of the stream has been reached.
-     * @throws IOException if an I/O error occurs
+     * Read from the wrapped stream on the pump thread.
      */
-    @Override
-    public int read() throws IOException {
-
-        if (timeoutMillis == 0) {
-            // Block on the read().
-            return stream.read();
-        }
+    public void run() {
+        byte [] chunk = new byte[BUFFER_SIZE];
 
-        if (stream.available() > 0) {
-            // A byte is available now, return it.
-            return stream.read();
-        }
+        for (;;) {
+            int space;
+            lock.lock();
+            try {
+                while ((bufferCount == buffer.length) && !eof) {
+                    changed.awaitUninterruptibly();
+                }
+                if (eof) {
+                    return;
+                }
+                space = buffer.length - bufferCount;
+            } finally {
+                lock.unlock();
+            }
 
-        // We will wait up to timeoutMillis to see if a byte is available.
-        // If not, we throw ReadTimeoutException.
-        long checkTime = System.currentTimeMillis();
-        while (stream.available() == 0) {
-            long now = System.currentTimeMillis();
-            synchronized (this) {
-                if ((now - checkTime > timeoutMillis) || (cancel == true)) {
-                    if (cancel == true) {
-                        cancel = false;
+            int rc;
+            try {
+                rc = stream.read(chunk, 0, space);
+            } catch (IOException e) {
+                lock.lock();
+                try {
+                    if (!eof) {
+                        error = e;
+                        eof = true;
                     }
-                    throw new ReadTimeoutException("Timeout on read(): " +
-                        (int) (now - checkTime) + " millis and still no data");
+                    changed.signalAll();
+                } finally {
+                    lock.unlock();
                 }
+                return;
             }
+
+            lock.lock();
             try {
-                // How long do we sleep for, eh?  For now we will go with 2
-                // millis.
-                Thread.sleep(2);
-            } catch (InterruptedException e) {
-                // SQUASH
+                if (rc == -1) {
+                    eof = true;
+                    changed.signalAll();
+                    return;
+                }
+                int end = (bufferStart + bufferCount) % buffer.length;
+                int n = Math.min(rc, buffer.length - end);
+                System.arraycopy(chunk, 0, buffer, end, n);
+                System.arraycopy(chunk, n, buffer, 0, rc - n);
+                bufferCount += rc;
+                changed.signalAll();
+            } finally {
+                lock.unlock();
             }
         }
-
-        if (stream.available() > 0) {
-            // A byte is available now, return it.
-            return stream.read();
-        }
-
-        throw new IOException("InputStream claimed a byte was available, but " +
-            "now it is not.  What is going on?");
     }
 
     /**
-     * Reads some number of bytes from the input stream and stores them into
-     * the buffer array b.
+     * Wait until bytes are buffered, the wrapped stream reaches EOF, the
+     * timeout expires, or cancelRead() is called.  The caller must hold
+     * lock.
      *
-     * @param b the buffer into which the data is read.
-     * @return the total number of bytes read into the buffer, or -1 if there
-     * is no more data because the end of the stream has been reached.
-     * @throws IOException if an I/O error occurs
+     * @return true if bytes are buffered, false on EOF
+     * @throws IOException if the wrapped stream failed
+     * @throws ReadTimeoutException if the timeout expired or the read was
+     * cancelled
      */
-    @Override
-    public int read(final byte[] b) throws IOException {
-        if (timeoutMillis == 0) {
-            // Block on the read().
-            return stream.read(b);
+    private boolean waitForData() throws IOException {
+        if (pumpThread == null) {
+            pumpThread = ThreadSupport.startDaemonThread(this);
         }
 
-        int remaining = b.length;
-
-        if (stream.available() >= remaining) {
-            // Enough bytes are available now, return them.
-            return stream.read(b);
-        }
-
-        while (remaining > 0) {
-
-            // We will wait up to timeoutMillis to see if a byte is
-            // available.  If not, we throw ReadTimeoutException.
-            long checkTime = System.currentTimeMillis();
-            while (stream.available() == 0) {
-                long now = System.currentTimeMillis();
-
-                synchronized (this) {
-                    if ((now - checkTime > timeoutMillis) || (cancel == true)) {
-                        if (cancel == true) {
-                            cancel = false;
-                        }
-                        throw new ReadTimeoutException("Timeout on read(): " +
-                            (int) (now - checkTime) + " millis and still no " +
-                            "data");
-                    }
+        long checkTime = System.currentTimeMillis();
+        while (bufferCount == 0) {
+            if (eof) {
+                if (error != null) {
+                    throw error;
+                }
+                return false;
+            }
+            if (cancel == true) {
+                cancel = false;
+                throw new ReadTimeoutException("Timeout on read(): " +
+                    "cancelled");
+            }
+            if (timeoutMillis > 0) {
+                long elapsed = System.currentTimeMillis() - checkTime;
+                if (elapsed >= timeoutMillis) {
+                    throw new ReadTimeoutException("Timeout on read(): " +
+                        (int) elapsed + " millis and still no data");
                 }
                 try {
-                    // How long do we sleep for, eh?  For now we will go with
-                    // 2 millis.
-                    Thread.sleep(2);
+                    changed.await(timeoutMillis - elapsed,
+                        TimeUnit.MILLISECONDS);
                 } catch (InterruptedException e) {
                     // SQUASH
                 }
+            } else {
+                changed.awaitUninterruptibly();
             }
+        }
+        return true;
+    }
 
-            if (stream.available() > 0) {
-                // At least one byte is available now, read it.
-                int n = stream.available();
-                if (remaining < n) {
-                    n = remaining;
-                }
-                int rc = stream.read(b, b.length - remaining, n);
-                if (rc == -1) {
-                    // This shouldn't happen.
-                    throw new IOException("InputStream claimed bytes were " +
-                        "available, but read() returned -1.  What is going " +
-                        "on?");
-                }
-                remaining -= rc;
-                return rc;
+    /**
+     * Reads the next byte of data from the input stream.
+     *
+     * @return the next byte of data, or -1 if there is no more data because
+     * the end of the stream has been reached.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public int read() throws IOException {
+        lock.lock();
+        try {
+            if (!waitForData()) {
+                return -1;
             }
+            int ch = buffer[bufferStart] & 0xFF;
+            bufferStart = (bufferStart + 1) % buffer.length;
+            bufferCount--;
+            changed.signalAll();
+            return ch;
+        } finally {
+            lock.unlock();
         }
+    }
 
-        throw new IOException("InputStream claimed all bytes were available, " +
-            "but now it is not.  What is going on?");
+    /**
+     * Reads some number of bytes from the input stream and stores them into
+     * the buffer array b.
+     *
+     * @param b the buffer into which the data is read.
+     * @return the total number of bytes read into the buffer, or -1 if there
+     * is no more data because the end of the stream has been reached.
+     * @throws IOException if an I/O error occurs
+     */
+    @Override
+    public int read(final byte[] b) throws IOException {
+        return read(b, 0, b.length);
     }
 
     /**
@@ -232,63 +316,26 @@ public class TimeoutInputStream extends InputStream {
     public int read(final byte[] b, final int off,
         final int len) throws IOException {
 
-        if (timeoutMillis == 0) {
-            // Block on the read().
-            return stream.read(b);
+        if (len == 0) {
+            return 0;
         }
-
-        int remaining = len;
-
-        if (stream.available() >= remaining) {
-            // Enough bytes are available now, return them.
-            return stream.read(b, off, remaining);
-        }
-
-        while (remaining > 0) {
-
-            // We will wait up to timeoutMillis to see if a byte is
-            // available.  If not, we throw ReadTimeoutException.
-            long checkTime = System.currentTimeMillis();
-            while (stream.available() == 0) {
-                long now = System.currentTimeMillis();
-                synchronized (this) {
-                    if ((now - checkTime > timeoutMillis) || (cancel == true)) {
-                        if (cancel == true) {
-                            cancel = false;
-                        }
-                        throw new ReadTimeoutException("Timeout on read(): " +
-                            (int) (now - checkTime) + " millis and still no " +
-                            "data");
-                    }
-                }
-                try {
-                    // How long do we sleep for, eh?  For now we will go with
-                    // 2 millis.
-                    Thread.sleep(2);
-                } catch (InterruptedException e) {
-                    // SQUASH
-                }
+        lock.lock();
+        try {
+            if (!waitForData()) {
+                return -1;
             }
 
-            if (stream.available() > 0) {
-                // At least one byte is available now, read it.
-                int n = stream.available();
-                if (remaining < n) {
-                    n = remaining;
-                }
-                int rc = stream.read(b, off + len - remaining, n);
-                if (rc == -1) {
-                    // This shouldn't happen.
-                    throw new IOException("InputStream claimed bytes were " +
-                        "available, but read() returned -1.  What is going " +
-                        "on?");
-                }
-                return rc;
-            }
+            int rc = Math.min(len, bufferCount);
+            int n = Math.min(rc, buffer.length - bufferStart);
+            System.arraycopy(buffer, bufferStart, b, off, n);
+            System.arraycopy(buffer, 0, b, off + n, rc - n);
+            bufferStart = (bufferStart + rc) % buffer.length;
+            bufferCount -= rc;
+            changed.signalAll();
+            return rc;
+        } finally {
+            lock.unlock();
         }
-
-        throw new IOException("InputStream claimed all bytes were available, " +
-            "but now it is not.  What is going on?");
     }
 
     /**
@@ -303,63 +350,34 @@ public class TimeoutInputStream extends InputStream {
      */
     @Override
     public int available() throws IOException {
-        return stream.available();
+        lock.lock();
+        try {
+            if (pumpThread == null) {
+                return stream.available();
+            }
+            return bufferCount;
+        } finally {
+            lock.unlock();
+        }
     }
 
     /**
      * Closes this input stream and releases any system resources associated
-     * with the stream.
+     * with the stream.  A read() waiting on another thread returns EOF.
      *
      * @throws IOException if an I/O error occurs
      */
     @Override
     public void close() throws IOException {
+        lock.lock();
+        try {
+            eof = true;
+            bufferCount = 0;
+            changed.signalAll();
+        } finally {
+            lock.unlock();
+        }
         stream.close();
     }
 
-    /**
-     * Marks the current position in this input stream.
-     *
-     * @param readLimit the maximum limit of bytes that can be read before
-     * the mark position becomes invalid
-     */
-    @Override
-    public void mark(final int readLimit) {
-        stream.mark(readLimit);
-    }
-
-    /**
-     * Tests if this input stream supports the mark and reset methods.
-     *
-     * @return true if this stream instance supports the mark and reset
-     * methods; false otherwise
-     */
-    @Override
-    public boolean markSupported() {
-        return stream.markSupported();
-    }
-
-    /**
-     * Repositions this stream to the position at the time the mark method
-     * was last called on this input stream.
-     *
-     * @throws IOException if an I/O error occurs
-     */
-    @Override
-    public void reset() throws IOException {
-        stream.reset();
-    }
-
-    /**
-     * Skips over and discards n bytes of data from this input stream.
-     *
-     * @param n the number of bytes to be skipped
-     * @return the actual number of bytes skipped
-     * @throws IOException if an I/O error occurs
-     */
-    @Override
-    public long skip(final long n) throws IOException {
-        return stream.skip(n);
-    }
-
 }
@@ -258,6 +258,7 @@ public class TMenuItem extends TWidget {
         getApplication().postMenuEvent(new TMenuEvent(id));
         if (checkable) {
             checked = !checked;
+            invalidate();
         }
     }
 
@@ -0,0 +1,199 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * DisplayBuffer holds the visible rows of an ECMA48 display, top row
+ * first.  It is a fixed-size ring, so getting a row is O(1), scrolling the
+ * whole display is O(1), and scrolling a region rotates just the rows in
+ * that region in place.
+ */
+public final class DisplayBuffer extends AbstractList<DisplayLine>
+                                 implements RandomAccess {
+
+    /**
+     * The rows, as a ring starting at head.
+     */
+    private final DisplayLine [] lines;
+
+    /**
+     * The index in lines of the top row.
+     */
+    private int head = 0;
+
+    /**
+     * Public constructor.  All rows start out null and must be set before
+     * use.
+     *
+     * @param height the number of rows
+     */
+    public DisplayBuffer(final int height) {
+        if (height < 1) {
+            throw new IllegalArgumentException("Invalid height value, " +
+                "must be >= 1");
+        }
+        lines = new DisplayLine[height];
+    }
+
+    /**
+     * Get the number of rows.
+     *
+     * @return the number of rows
+     */
+    @Override
+    public int size() {
+        return lines.length;
+    }
+
+    /**
+     * Get a row.
+     *
+     * @param index the row number.  0 is the top row.
+     * @return the row
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        return lines[physicalIndex(index)];
+    }
+
+    /**
+     * Replace a row.
+     *
+     * @param index the row number.  0 is the top row.
+     * @param line the new row
+     * @return the row that was replaced
+     */
+    @Override
+    public DisplayLine set(final int index, final DisplayLine line) {
+        int i = physicalIndex(index);
+        DisplayLine oldLine = lines[i];
+        lines[i] = line;
+        return oldLine;
+    }
+
+    /**
+     * Scroll the whole display up one row: every row moves up, the top row
+     * is removed, and a new row goes in at the bottom.
+     *
+     * @param line the new bottom row
+     * @return the old top row
+     */
+    public DisplayLine scrollUp(final DisplayLine line) {
+        DisplayLine oldLine = lines[head];
+        lines[head] = line;
+        head++;
+        if (head == lines.length) {
+            head = 0;
+        }
+        return oldLine;
+    }
+
+    /**
+     * Rotate the rows of a region up n rows: each row in the region moves
+     * up n rows, and the top n rows of the region end up at its bottom.
+     *
+     * @param top the top row of the region
+     * @param bottom the bottom row of the region
+     * @param n the number of rows to rotate by, between 0 and the region
+     * height
+     */
+    public void rotateUp(final int top, final int bottom, final int n) {
+        if ((top < 0) || (bottom >= lines.length) || (top > bottom)
+            || (n < 0) || (n > bottom + 1 - top)
+        ) {
+            throw new IndexOutOfBoundsException("Invalid region " + top +
+                "-" + bottom + " rotated by " + n);
+        }
+        if ((n == 0) || (n == bottom + 1 - top)) {
+            return;
+        }
+        if ((top == 0) && (bottom == lines.length - 1)) {
+            // The whole ring turns
+            head = (head + n) % lines.length;
+            modCount++;
+            return;
+        }
+        reverse(top, top + n - 1);
+        reverse(top + n, bottom);
+        reverse(top, bottom);
+        modCount++;
+    }
+
+    /**
+     * Rotate the rows of a region down n rows: each row in the region
+     * moves down n rows, and the bottom n rows of the region end up at its
+     * top.
+     *
+     * @param top the top row of the region
+     * @param bottom the bottom row of the region
+     * @param n the number of rows to rotate by, between 0 and the region
+     * height
+     */
+    public void rotateDown(final int top, final int bottom, final int n) {
+        rotateUp(top, bottom, bottom + 1 - top - n);
+    }
+
+    /**
+     * Reverse the order of a range of rows.
+     *
+     * @param first the first row in the range
+     * @param last the last row in the range
+     */
+    private void reverse(final int first, final int last) {
+        for (int i = first, j = last; i < j; i++, j--) {
+            int pi = physicalIndex(i);
+            int pj = physicalIndex(j);
+            DisplayLine line = lines[pi];
+            lines[pi] = lines[pj];
+            lines[pj] = line;
+        }
+    }
+
+    /**
+     * Convert a row number to an index into lines.
+     *
+     * @param index the row number.  0 is the top row.
+     * @return the index into lines
+     */
+    private int physicalIndex(final int index) {
+        if ((index < 0) || (index >= lines.length)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + lines.length);
+        }
+        int i = head + index;
+        if (i >= lines.length) {
+            i -= lines.length;
+        }
+        return i;
+    }
+
+}
@@ -30,6 +30,7 @@ package jexer.tterminal;
 
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.PackedCell;
 
 /**
  * This represents a single line of the display buffer.
@@ -41,18 +42,58 @@ public final class DisplayLine {
     private static final int MAX_LINE_LENGTH = 256;
 
     /**
-     * The characters/attributes of the line.
+     * The characters/attributes of the line, or null if the line has been
+     * compacted.
      */
     private Cell [] chars;
 
     /**
-     * Get the Cell at a specific column.
+     * The characters/attributes of a compacted line as PackedCell values,
+     * without the run of identical cells at the end.
+     */
+    private long [] packed = null;
+
+    /**
+     * The PackedCell value of every column at or past packed.length.
+     */
+    private long packedFill;
+
+    /**
+     * Get the Cell at a specific column.  For a compacted line this is a
+     * copy, and changing it does not change the line.
      *
      * @param idx the character index
      * @return the Cell
      */
     public Cell charAt(final int idx) {
-        return chars[idx];
+        if (chars != null) {
+            return chars[idx];
+        }
+        if ((idx < 0) || (idx >= MAX_LINE_LENGTH)) {
+            throw new ArrayIndexOutOfBoundsException(idx);
+        }
+        return PackedCell.unpack(idx < packed.length ? packed[idx] :
+            packedFill, new Cell());
+    }
+
+    /**
+     * Copy the Cell at a specific column into a Cell the caller owns.
+     * Unlike charAt(int), this never allocates.
+     *
+     * @param idx the character index
+     * @param cell the Cell to copy into
+     * @return cell
+     */
+    public Cell charAt(final int idx, final Cell cell) {
+        if (chars != null) {
+            cell.setTo(chars[idx]);
+            return cell;
+        }
+        if ((idx < 0) || (idx >= MAX_LINE_LENGTH)) {
+            throw new ArrayIndexOutOfBoundsException(idx);
+        }
+        return PackedCell.unpack(idx < packed.length ? packed[idx] :
+            packedFill, cell);
     }
 
     /**
@@ -61,7 +102,74 @@ public final class DisplayLine {
      * @return line length
      */
     public int length() {
-        return chars.length;
+        return MAX_LINE_LENGTH;
+    }
+
+    /**
+     * Store this line in a compact form.  This is done to lines that have
+     * scrolled off into the scrollback buffer, which are read but no longer
+     * written.  Changing a compacted line expands it again.
+     */
+    public void compact() {
+        if (chars == null) {
+            return;
+        }
+        packedFill = PackedCell.pack(chars[chars.length - 1]);
+        int n = chars.length - 1;
+        while ((n > 0) && (PackedCell.pack(chars[n - 1]) == packedFill)) {
+            n--;
+        }
+        packed = new long[n];
+        for (int i = 0; i < n; i++) {
+            packed[i] = PackedCell.pack(chars[i]);
+        }
+        chars = null;
+    }
+
+    /**
+     * Undo compact() before the line is changed.
+     */
+    private void expand() {
+        if (chars != null) {
+            return;
+        }
+        chars = new Cell[MAX_LINE_LENGTH];
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = PackedCell.unpack(i < packed.length ? packed[i] :
+                packedFill, new Cell());
+        }
+        packed = null;
+    }
+
+    /**
+     * Get the approximate number of bytes of heap this line uses.
+     *
+     * @return the size in bytes
+     */
+    public int getMemorySize() {
+        if (chars == null) {
+            // Object, array header, and the longs
+            return 48 + (packed.length * 8);
+        }
+        // Object, array of references, and a Cell with CellAttributes for
+        // each column
+        return 32 + (chars.length * (4 + 32));
+    }
+
+    /**
+     * The number of times this line has been changed.  Something that
+     * draws the line can save this, and compare it later to see if the
+     * line must be drawn again.
+     */
+    private long generation = 0;
+
+    /**
+     * Get the number of times this line has been changed.
+     *
+     * @return the generation
+     */
+    public long getGeneration() {
+        return generation;
     }
 
     /**
@@ -85,6 +193,7 @@ public final class DisplayLine {
      */
     public void setDoubleWidth(final boolean doubleWidth) {
         this.doubleWidth = doubleWidth;
+        generation++;
     }
 
     /**
@@ -114,6 +223,7 @@ public final class DisplayLine {
      */
     public void setDoubleHeight(final int doubleHeight) {
         this.doubleHeight = doubleHeight;
+        generation++;
     }
 
     /**
@@ -138,6 +248,7 @@ public final class DisplayLine {
      */
     public void setReverseColor(final boolean reverseColor) {
         this.reverseColor = reverseColor;
+        generation++;
     }
 
     /**
@@ -160,6 +271,8 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void insert(final int idx, final Cell newCell) {
+        expand();
+        generation++;
         System.arraycopy(chars, idx, chars, idx + 1, chars.length - idx - 1);
         chars[idx] = new Cell();
         chars[idx].setTo(newCell);
@@ -172,15 +285,35 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void replace(final int idx, final Cell newCell) {
+        expand();
+        generation++;
         chars[idx].setTo(newCell);
     }
 
+    /**
+     * Replace character at the specified position.
+     *
+     * @param idx the character index
+     * @param ch the new char
+     * @param attr the new attributes
+     */
+    public void replace(final int idx, final char ch,
+        final CellAttributes attr) {
+
+        expand();
+        generation++;
+        chars[idx].setAttr(attr);
+        chars[idx].setChar(ch);
+    }
+
     /**
      * Set the Cell at the specified position to the blank (reset).
      *
      * @param idx the character index
      */
     public void setBlank(final int idx) {
+        expand();
+        generation++;
         chars[idx].reset();
     }
 
@@ -192,6 +325,8 @@ public final class DisplayLine {
      * @param ch the new char
      */
     public void setChar(final int idx, final char ch) {
+        expand();
+        generation++;
         chars[idx].setChar(ch);
     }
 
@@ -203,6 +338,8 @@ public final class DisplayLine {
      * @param attr the new attributes
      */
     public void setAttr(final int idx, final CellAttributes attr) {
+        expand();
+        generation++;
         chars[idx].setAttr(attr);
     }
 
@@ -214,6 +351,8 @@ public final class DisplayLine {
      * @param newCell the new Cell
      */
     public void delete(final int idx, final Cell newCell) {
+        expand();
+        generation++;
         System.arraycopy(chars, idx + 1, chars, idx, chars.length - idx - 1);
         chars[chars.length - 1] = new Cell();
         chars[chars.length - 1].setTo(newCell);
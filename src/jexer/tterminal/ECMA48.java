@@ -38,7 +38,6 @@ import java.io.UnsupportedEncodingException;
 import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedList;
 import java.util.List;
 
 import jexer.TKeypress;
@@ -46,6 +45,7 @@ import jexer.event.TMouseEvent;
 import jexer.bits.Color;
 import jexer.bits.Cell;
 import jexer.bits.CellAttributes;
+import jexer.bits.ThreadSupport;
 import jexer.io.ReadTimeoutException;
 import jexer.io.TimeoutInputStream;
 import static jexer.TKeypress.*;
@@ -252,15 +252,18 @@ public class ECMA48 implements Runnable {
      */
     public final void close() {
 
-        // Tell the reader thread to stop looking at input.  It will close
-        // the input streams.
-        if (stopReaderThread == false) {
+        // Tell the reader thread to stop looking at input.  It checks this
+        // under the same lock before it consumes anything, so once this
+        // returns it will not touch the emulator or the output again.  It
+        // may still be blocked on read(); it closes the input streams when
+        // that returns, which for a shell is when the process goes away.
+        synchronized (this) {
             stopReaderThread = true;
-            try {
-                readerThread.join(1000);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
+        }
+        InputStream stream = inputStream;
+        if (stream instanceof TimeoutInputStream) {
+            // Wake up the reader if it is waiting for input
+            ((TimeoutInputStream) stream).cancelRead();
         }
 
         // Now close the output stream.
@@ -336,10 +339,22 @@ public class ECMA48 implements Runnable {
         return new DisplayLine(currentState.attr);
     }
 
+    /**
+     * The most characters the reader thread consumes per lock on the
+     * emulator.
+     */
+    private static final int READ_BUFFER_SIZE = 4096;
+
+    /**
+     * The default maximum number of scrollback lines, used when the
+     * jexer.ECMA48.scrollback property is not set.
+     */
+    public static final int DEFAULT_SCROLLBACK_MAX = 10000;
+
     /**
      * The scrollback buffer characters + attributes.
      */
-    private volatile List<DisplayLine> scrollback;
+    private volatile ScrollbackBuffer scrollback;
 
     /**
      * Get the scrollback buffer.
@@ -350,10 +365,45 @@ public class ECMA48 implements Runnable {
         return scrollback;
     }
 
+    /**
+     * Get the maximum number of scrollback lines.
+     *
+     * @return the maximum number of lines kept after they scroll off the
+     * display
+     */
+    public final int getScrollbackMax() {
+        return scrollback.getMaxLines();
+    }
+
+    /**
+     * Set the maximum number of scrollback lines.  If there are more lines
+     * than this, the oldest are discarded.
+     *
+     * @param maxLines the maximum number of lines kept after they scroll off
+     * the display; 0 disables scrollback
+     */
+    public final void setScrollbackMax(final int maxLines) {
+        synchronized (this) {
+            scrollback.setMaxLines(maxLines);
+            changeSequence++;
+        }
+        notifyDisplayListener();
+    }
+
+    /**
+     * Get the approximate number of bytes of heap used by the scrollback
+     * buffer.
+     *
+     * @return the size in bytes
+     */
+    public final synchronized long getScrollbackMemorySize() {
+        return scrollback.getMemorySize();
+    }
+
     /**
      * The raw display buffer characters + attributes.
      */
-    private volatile List<DisplayLine> display;
+    private final DisplayBuffer display;
 
     /**
      * Get the display buffer.
@@ -364,6 +414,82 @@ public class ECMA48 implements Runnable {
         return display;
     }
 
+    /**
+     * Incremented every time the reader thread consumes input, and
+     * whenever anything else might have changed what is on the display.
+     */
+    private volatile long changeSequence = 0;
+
+    /**
+     * Get the change sequence number.  If this is the same as the last
+     * time the emulator was drawn, nothing has changed since then.  Each
+     * DisplayLine also has a generation, for finding the lines that did
+     * change.
+     *
+     * @return the change sequence number
+     */
+    public final long getChangeSequence() {
+        return changeSequence;
+    }
+
+    /**
+     * Called when the reader thread has consumed input or the scrollback
+     * size changed, or null.  It is never called while holding the
+     * emulator lock.  keypress() does not call it: its caller is the UI,
+     * which can check getChangeSequence() itself once it lets go of the
+     * lock.
+     */
+    private volatile Runnable displayListener = null;
+
+    /**
+     * Set the callback to run whenever remote output or a scrollback
+     * change might have changed what is on the display, so that a UI can
+     * draw the emulator again without polling getChangeSequence().  It is
+     * usually called on the reader thread, so it should only arrange for
+     * drawing to happen later.
+     *
+     * @param listener the callback, or null
+     */
+    public final void setDisplayListener(final Runnable listener) {
+        displayListener = listener;
+    }
+
+    /**
+     * Tell the display listener, if there is one, that the change sequence
+     * moved.
+     */
+    private void notifyDisplayListener() {
+        Runnable listener = displayListener;
+        if (listener != null) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Get the number of lines in the scrollback buffer plus the display.
+     *
+     * @return the number of lines
+     */
+    public final int getLineCount() {
+        return scrollback.size() + display.size();
+    }
+
+    /**
+     * Get one line of the scrollback buffer plus the display, without
+     * copying either one.  The line must not be changed.
+     *
+     * @param index the line number.  0 is the oldest scrollback line, and
+     * getLineCount() - 1 is the bottom row of the display.
+     * @return the line
+     */
+    public final DisplayLine getLine(final int index) {
+        int scrollbackSize = scrollback.size();
+        if (index < scrollbackSize) {
+            return scrollback.get(index);
+        }
+        return display.get(index - scrollbackSize);
+    }
+
     /**
      * The terminal's input.  For type == XTERM, this is an InputStreamReader
      * with UTF-8 encoding.
@@ -372,8 +498,10 @@ public class ECMA48 implements Runnable {
 
     /**
      * The terminal's raw InputStream.  This is used for type != XTERM.
+     * The reader thread reads it directly; if it is a TimeoutInputStream,
+     * close() also cancels a read in progress.
      */
-    private volatile TimeoutInputStream inputStream;
+    private volatile InputStream inputStream;
 
     /**
      * The terminal's output.  For type == XTERM, this wraps an
@@ -493,6 +621,12 @@ public class ECMA48 implements Runnable {
      */
     private MouseProtocol mouseProtocol = MouseProtocol.OFF;
 
+    /**
+     * If true, the remote side asked for pasted text to be wrapped in
+     * "\033[200~" and "\033[201~" (xterm bracketed paste mode, 2004).
+     */
+    private boolean bracketedPaste = false;
+
     /**
      * XTERM mouse reporting encodings.
      */
@@ -864,6 +998,7 @@ public class ECMA48 implements Runnable {
         // XTERM
         mouseProtocol           = MouseProtocol.OFF;
         mouseEncoding           = MouseEncoding.X10;
+        bracketedPaste          = false;
 
         // Tab stops
         resetTabStops();
@@ -894,15 +1029,10 @@ public class ECMA48 implements Runnable {
 
         csiParams         = new ArrayList<Integer>();
         tabStops          = new ArrayList<Integer>();
-        scrollback        = new LinkedList<DisplayLine>();
-        display           = new LinkedList<DisplayLine>();
+        scrollback        = new ScrollbackBuffer(DEFAULT_SCROLLBACK_MAX);
 
         this.type         = type;
-        if (inputStream instanceof TimeoutInputStream) {
-            this.inputStream  = (TimeoutInputStream)inputStream;
-        } else {
-            this.inputStream  = new TimeoutInputStream(inputStream, 2000);
-        }
+        this.inputStream  = inputStream;
         if (type == DeviceType.XTERM) {
             this.input    = new InputStreamReader(this.inputStream, "UTF-8");
             this.output   = new OutputStreamWriter(outputStream, "UTF-8");
@@ -912,14 +1042,24 @@ public class ECMA48 implements Runnable {
             this.outputStream = outputStream;
         }
 
+        // Permit a different scrollback size if externally requested
+        String lines = System.getProperty("jexer.ECMA48.scrollback");
+        if (lines != null) {
+            try {
+                setScrollbackMax(Integer.parseInt(lines));
+            } catch (IllegalArgumentException e) {
+                // SQUASH, NumberFormatException is one of these too
+            }
+        }
+
         reset();
+        display = new DisplayBuffer(height);
         for (int i = 0; i < height; i++) {
-            display.add(new DisplayLine(currentState.attr));
+            display.set(i, new DisplayLine(currentState.attr));
         }
 
         // Spin up the input reader
-        readerThread = new Thread(this);
-        readerThread.start();
+        readerThread = ThreadSupport.startThread(this);
     }
 
     /**
@@ -928,11 +1068,9 @@ public class ECMA48 implements Runnable {
      */
     private void newDisplayLine() {
         // Scroll the top line off into the scrollback buffer
-        scrollback.add(display.get(0));
-        display.remove(0);
         DisplayLine line = new DisplayLine(currentState.attr);
         line.setReverseColor(reverseVideo);
-        display.add(line);
+        scrollback.add(display.scrollUp(line));
     }
 
     /**
@@ -1079,6 +1217,102 @@ public class ECMA48 implements Runnable {
         }
     }
 
+    /**
+     * See if the G0-G3 character set that plain 7-bit characters are
+     * printed from is US ASCII, so that they need no mapping.
+     *
+     * @return true if mapCharacter() leaves 0x20-0x7E as they are
+     */
+    private boolean isAsciiUnmapped() {
+        CharacterSet charsetGl = currentState.g0Charset;
+        if (shiftOut == true) {
+            charsetGl = currentState.g1Charset;
+        } else if ((vt52Mode == false)
+            && ((type == DeviceType.VT220) || (type == DeviceType.XTERM))
+        ) {
+            switch (currentState.glLockshift) {
+            case G2_GL:
+                charsetGl = currentState.g2Charset;
+                break;
+            case G3_GL:
+                charsetGl = currentState.g3Charset;
+                break;
+            default:
+                break;
+            }
+        }
+        return ((charsetGl == CharacterSet.US)
+            || (charsetGl == CharacterSet.ROM)
+            || (charsetGl == CharacterSet.ROM_SPECIAL));
+    }
+
+    /**
+     * See if a character is printed by GROUND state without changing any
+     * other state.
+     *
+     * @param ch character from the remote side
+     * @return true if ch is a printable character
+     */
+    private boolean isPrintable(final char ch) {
+        if ((ch >= 0x20) && (ch < 0x7F)) {
+            return true;
+        }
+        if ((type == DeviceType.VT100) || (type == DeviceType.VT102)) {
+            // consume() would strip the 8th bit first
+            return false;
+        }
+        return (ch >= 0xA0);
+    }
+
+    /**
+     * Prints a run of printable characters to the display buffer.  This
+     * does the same as calling mapCharacter() and printCharacter() on each
+     * one, but fills in the line up to the right margin directly.  The
+     * margin itself and insert mode still go through printCharacter().
+     *
+     * @param buf the characters
+     * @param start the index of the first character
+     * @param end the index after the last character
+     */
+    private void printRun(final char [] buf, final int start,
+        final int end) {
+
+        boolean asciiUnmapped = isAsciiUnmapped();
+        CellAttributes attr = currentState.attr;
+
+        int i = start;
+        while (i < end) {
+            DisplayLine line = display.get(currentState.cursorY);
+            int rightMargin = this.rightMargin;
+            if (line.isDoubleWidth()) {
+                rightMargin = ((rightMargin + 1) / 2) - 1;
+            }
+
+            if ((insertMode == true)
+                || (currentState.cursorX >= rightMargin)
+            ) {
+                repCh = mapCharacter(buf[i]);
+                printCharacter(repCh);
+                i++;
+                continue;
+            }
+
+            // The normal case: no wrapping until the right margin
+            int n = Math.min(end - i, rightMargin - currentState.cursorX);
+            for (int j = i; j < i + n; j++) {
+                char ch = buf[j];
+                if ((ch >= 0x80) || !asciiUnmapped) {
+                    ch = mapCharacter(ch);
+                }
+                line.replace(currentState.cursorX, ch, attr);
+                currentState.cursorX++;
+                repCh = ch;
+            }
+            wrapLineFlag = false;
+            i += n;
+        }
+    }
+
     /**
      * Translate the mouse event to a VT100, VT220, or XTERM sequence and
      * send to the remote side.
@@ -1235,6 +1469,28 @@ public class ECMA48 implements Runnable {
      */
     public void keypress(final TKeypress keypress) {
         writeRemote(keypressToString(keypress));
+
+        // Half-duplex local echo can change the display
+        changeSequence++;
+    }
+
+    /**
+     * Send pasted text to the remote side in a single write.  Line breaks
+     * are sent as CR, as a terminal would send them, and the text is
+     * bracketed if the remote side asked for it.
+     *
+     * @param text the pasted text, with '\n' line breaks
+     */
+    public void paste(final String text) {
+        StringBuilder sb = new StringBuilder(text.length() + 12);
+        if (bracketedPaste) {
+            sb.append("\033[200~");
+        }
+        sb.append(text.replace('\n', '\r'));
+        if (bracketedPaste) {
+            sb.append("\033[201~");
+        }
+        writeRemote(sb.toString());
     }
 
     /**
@@ -2148,22 +2404,14 @@ public class ECMA48 implements Runnable {
             return;
         }
 
-        int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionBottom + 1
-            - remaining, regionBottom + 1);
-        display = new LinkedList<DisplayLine>(displayTop);
-        display.addAll(displayMiddle);
-        for (int i = 0; i < n; i++) {
+        // Move the lines that stay up, then blank the n lines that rotated
+        // around to the bottom
+        display.rotateUp(regionTop, regionBottom, n);
+        for (int i = regionBottom + 1 - n; i <= regionBottom; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            display.set(i, line);
         }
-        display.addAll(displayBottom);
-
-        assert (display.size() == height);
     }
 
     /**
@@ -2189,22 +2437,14 @@ public class ECMA48 implements Runnable {
             return;
         }
 
-        int remaining = regionBottom + 1 - regionTop - n;
-        List<DisplayLine> displayTop = display.subList(0, regionTop);
-        List<DisplayLine> displayBottom = display.subList(regionBottom + 1,
-            display.size());
-        List<DisplayLine> displayMiddle = display.subList(regionTop,
-            regionTop + remaining);
-        display = new LinkedList<DisplayLine>(displayTop);
-        for (int i = 0; i < n; i++) {
+        // Move the lines that stay down, then blank the n lines that
+        // rotated around to the top
+        display.rotateDown(regionTop, regionBottom, n);
+        for (int i = regionTop; i < regionTop + n; i++) {
             DisplayLine line = new DisplayLine(currentState.attr);
             line.setReverseColor(reverseVideo);
-            display.add(line);
+            display.set(i, line);
         }
-        display.addAll(displayMiddle);
-        display.addAll(displayBottom);
-
-        assert (display.size() == height);
     }
 
     /**
@@ -2730,6 +2970,15 @@ public class ECMA48 implements Runnable {
                 }
                 break;
 
+            case 2004:
+                if ((type == DeviceType.XTERM)
+                    && (decPrivateModeFlag == true)
+                ) {
+                    // Bracketed paste
+                    bracketedPaste = value;
+                }
+                break;
+
             default:
                 break;
 
@@ -4040,6 +4289,38 @@ public class ECMA48 implements Runnable {
         }
     }
 
+    /**
+     * Run a buffer of input through the ECMA48 state machine.  Runs of
+     * printable characters in GROUND state go to printRun() in one call.
+     * The caller must hold the lock on this.
+     *
+     * @param buf characters from the remote side
+     * @param len the number of characters in buf
+     */
+    private void consume(final char [] buf, final int len) {
+        int i = 0;
+        while (i < len) {
+            if ((scanState == ScanState.GROUND)
+                && (singleshift == Singleshift.NONE)
+                && ((printerControllerMode == false)
+                    || (type == DeviceType.VT100)
+                    || (type == DeviceType.VT102))
+            ) {
+                int end = i;
+                while ((end < len) && isPrintable(buf[end])) {
+                    end++;
+                }
+                if (end > i) {
+                    printRun(buf, i, end);
+                    i = end;
+                    continue;
+                }
+            }
+            consume(buf[i]);
+            i++;
+        }
+    }
+
     /**
      * Run this input character through the ECMA48 state machine.
      *
@@ -5996,45 +6277,16 @@ public class ECMA48 implements Runnable {
             utf8 = true;
         }
 
-        // available() will often return > 1, so we need to read in chunks to
-        // stay caught up.
-        char [] readBufferUTF8 = null;
+        // read() blocks until at least one byte is here, then returns
+        // everything that has arrived, up to the size of the buffer.
+        char [] readBufferUTF8 = new char[READ_BUFFER_SIZE];
         byte [] readBuffer = null;
-        if (utf8) {
-            readBufferUTF8 = new char[128];
-        } else {
-            readBuffer = new byte[128];
+        if (!utf8) {
+            readBuffer = new byte[readBufferUTF8.length];
         }
 
         while (!done && !stopReaderThread) {
             try {
-                int n = inputStream.available();
-
-                // System.err.printf("available() %d\n", n); System.err.flush();
-                if (utf8) {
-                    if (readBufferUTF8.length < n) {
-                        // The buffer wasn't big enough, make it huger
-                        int newSizeHalf = Math.max(readBufferUTF8.length,
-                            n);
-
-                        readBufferUTF8 = new char[newSizeHalf * 2];
-                    }
-                } else {
-                    if (readBuffer.length < n) {
-                        // The buffer wasn't big enough, make it huger
-                        int newSizeHalf = Math.max(readBuffer.length, n);
-                        readBuffer = new byte[newSizeHalf * 2];
-                    }
-                }
-                if (n == 0) {
-                    try {
-                        Thread.sleep(2);
-                    } catch (InterruptedException e) {
-                        // SQUASH
-                    }
-                    continue;
-                }
-
                 int rc = -1;
                 try {
                     if (utf8) {
@@ -6043,8 +6295,12 @@ public class ECMA48 implements Runnable {
                     } else {
                         rc = inputStream.read(readBuffer, 0,
                             readBuffer.length);
+                        for (int i = 0; i < rc; i++) {
+                            readBufferUTF8[i] = (char) (readBuffer[i] & 0xFF);
+                        }
                     }
                 } catch (ReadTimeoutException e) {
+                    // close() cancelled the read on a TimeoutInputStream
                     rc = 0;
                 }
 
@@ -6053,43 +6309,52 @@ public class ECMA48 implements Runnable {
                     // This is EOF
                     done = true;
                 } else {
-                    for (int i = 0; i < rc; i++) {
-                        int ch = 0;
-                        if (utf8) {
-                            ch = readBufferUTF8[i];
-                        } else {
-                            ch = readBuffer[i];
-                        }
-
-                        synchronized (this) {
-                            // Don't step on UI events
-                            consume((char)ch);
+                    // Don't step on UI events.  The whole buffer goes in
+                    // under one lock; since it is at most READ_BUFFER_SIZE
+                    // characters, the UI thread never waits long.
+                    boolean changed = false;
+                    synchronized (this) {
+                        if (!stopReaderThread) {
+                            consume(readBufferUTF8, rc);
+                            changeSequence++;
+                            changed = true;
                         }
                     }
+                    if (changed) {
+                        notifyDisplayListener();
+                    }
                 }
                 // System.err.println("end while loop"); System.err.flush();
             } catch (IOException e) {
-                e.printStackTrace();
+                if (!stopReaderThread) {
+                    // Not the stream going away after close()
+                    e.printStackTrace();
+                }
                 done = true;
             }
 
         } // while ((done == false) && (stopReaderThread == false))
 
         // Let the rest of the world know that I am done.
-        stopReaderThread = true;
+        synchronized (this) {
+            stopReaderThread = true;
+            changeSequence++;
+        }
+        notifyDisplayListener();
 
         try {
-            inputStream.cancelRead();
             inputStream.close();
             inputStream = null;
         } catch (IOException e) {
             // SQUASH
         }
-        try {
-            input.close();
-            input = null;
-        } catch (IOException e) {
-            // SQUASH
+        if (input != null) {
+            try {
+                input.close();
+                input = null;
+            } catch (IOException e) {
+                // SQUASH
+            }
         }
 
         // System.err.println("*** run() exiting..."); System.err.flush();
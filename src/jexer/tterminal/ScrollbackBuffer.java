@@ -0,0 +1,223 @@
+/*
+ * Jexer - Java Text User Interface
+ *
+ * The MIT License (MIT)
+ *
+ * Copyright (C) 2017 Kevin Lamonte
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a
+ * copy of this software and associated documentation files (the "Software"),
+ * to deal in the Software without restriction, including without limitation
+ * the rights to use, copy, modify, merge, publish, distribute, sublicense,
+ * and/or sell copies of the Software, and to permit persons to whom the
+ * Software is furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL
+ * THE AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING
+ * FROM, OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER
+ * DEALINGS IN THE SOFTWARE.
+ *
+ * @author Kevin Lamonte [kevin.lamonte@gmail.com]
+ * @version 1
+ */
+package jexer.tterminal;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * ScrollbackBuffer holds the lines that have scrolled off the top of an
+ * ECMA48 display, oldest first.  It is a ring buffer with a maximum number
+ * of lines: appending is O(1), and once it is full each new line replaces
+ * the oldest one.  Lines are compacted as they are added.
+ */
+public final class ScrollbackBuffer extends AbstractList<DisplayLine>
+                                    implements RandomAccess {
+
+    /**
+     * The smallest array allocated for the ring.
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The lines, as a ring starting at head.  This grows up to maxLines.
+     */
+    private DisplayLine [] lines = new DisplayLine[0];
+
+    /**
+     * The index in lines of the oldest line.
+     */
+    private int head = 0;
+
+    /**
+     * The number of lines held.
+     */
+    private int count = 0;
+
+    /**
+     * The most lines held.  Past this the oldest lines are discarded.
+     */
+    private int maxLines;
+
+    /**
+     * The sum of getMemorySize() over the lines held.
+     */
+    private long memorySize = 0;
+
+    /**
+     * Public constructor.
+     *
+     * @param maxLines the most lines to hold; 0 disables scrollback
+     */
+    public ScrollbackBuffer(final int maxLines) {
+        if (maxLines < 0) {
+            throw new IllegalArgumentException("Invalid maxLines value, " +
+                "must be >= 0");
+        }
+        this.maxLines = maxLines;
+    }
+
+    /**
+     * Get the most lines held.
+     *
+     * @return the maximum number of lines
+     */
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    /**
+     * Set the most lines held.  If there are more lines than this, the
+     * oldest are discarded.
+     *
+     * @param maxLines the most lines to hold; 0 disables scrollback
+     */
+    public void setMaxLines(final int maxLines) {
+        if (maxLines < 0) {
+            throw new IllegalArgumentException("Invalid maxLines value, " +
+                "must be >= 0");
+        }
+        while (count > maxLines) {
+            removeOldest();
+        }
+        this.maxLines = maxLines;
+        if (lines.length > maxLines) {
+            resize(maxLines);
+        }
+    }
+
+    /**
+     * Get the approximate number of bytes of heap used by the lines held.
+     *
+     * @return the size in bytes
+     */
+    public long getMemorySize() {
+        return memorySize;
+    }
+
+    /**
+     * Get the number of lines held.
+     *
+     * @return the number of lines
+     */
+    @Override
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Get a line.
+     *
+     * @param index the line number.  0 is the oldest line.
+     * @return the line
+     */
+    @Override
+    public DisplayLine get(final int index) {
+        if ((index < 0) || (index >= count)) {
+            throw new IndexOutOfBoundsException("Index: " + index +
+                ", Size: " + count);
+        }
+        int i = head + index;
+        if (i >= lines.length) {
+            i -= lines.length;
+        }
+        return lines[i];
+    }
+
+    /**
+     * Append a line, discarding the oldest line if full.  The line is
+     * compacted and must not be changed afterwards.
+     *
+     * @param line the line that scrolled off the display
+     * @return true
+     */
+    @Override
+    public boolean add(final DisplayLine line) {
+        if (maxLines == 0) {
+            return true;
+        }
+        line.compact();
+        if (count == maxLines) {
+            removeOldest();
+        } else if (count == lines.length) {
+            resize(Math.min(maxLines, Math.max(INITIAL_CAPACITY,
+                        lines.length * 2)));
+        }
+        int i = head + count;
+        if (i >= lines.length) {
+            i -= lines.length;
+        }
+        lines[i] = line;
+        count++;
+        memorySize += line.getMemorySize();
+        modCount++;
+        return true;
+    }
+
+    /**
+     * Discard all lines.
+     */
+    @Override
+    public void clear() {
+        lines = new DisplayLine[0];
+        head = 0;
+        count = 0;
+        memorySize = 0;
+        modCount++;
+    }
+
+    /**
+     * Discard the oldest line.
+     */
+    private void removeOldest() {
+        memorySize -= lines[head].getMemorySize();
+        lines[head] = null;
+        head++;
+        if (head == lines.length) {
+            head = 0;
+        }
+        count--;
+        modCount++;
+    }
+
+    /**
+     * Move the lines into a new array, oldest first.
+     *
+     * @param capacity the new array size, at least count
+     */
+    private void resize(final int capacity) {
+        DisplayLine [] newLines = new DisplayLine[capacity];
+        for (int i = 0; i < count; i++) {
+            newLines[i] = get(i);
+        }
+        lines = newLines;
+        head = 0;
+    }
+
+}